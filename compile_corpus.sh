@@ -0,0 +1,29 @@
+USAGE="usage: corpus_path output_path [-h] [-j n] -- pre-encode a corpus for repeated generation runs
+
+where:
+    -h  show this help text
+    -j  number of threads to use (default: 1)"
+
+CORPUS_PATH="$1"
+OUTPUT="$2"
+shift 2
+NUM_THREADS=1
+
+while [[ $# > 0 ]]
+do
+key="$1"
+case $key in
+    -h|--help)
+    echo "$USAGE"
+    exit
+    ;;
+    -j|--jobs)
+    NUM_THREADS="$2"
+    shift 2
+    ;;
+esac
+done
+
+java -cp build/libs/density-matrix-generator.jar dmatrix.CorpusCompiler\
+  $CORPUS_PATH $OUTPUT $NUM_THREADS
+
@@ -5,6 +5,11 @@ where:
     -d  number of context words to use (default: soft cutoff, d = 0)
     -j  number of threads to use (default: 1)
     -r  number of runs to use, partitioning target words (default: 1)
+    -b  memory budget in MB for lock-free thread-local accumulation (default: 0, shared)
+    --readers  number of reader threads in pipeline mode (default: 1)
+    --parsers  number of parser threads, enabling pipeline mode (default: 0, workers read their own files)
+    --spill  memory budget in MB for single pass accumulation spilled to disk, replacing runs (default: 0, off)
+    -c  write all matrices to a single matrices.store file instead of one .bin file per target
     -o  output file (default: matrices/)
     -v  generate and output vector representation"
 
@@ -16,6 +21,11 @@ DIM=0
 OUTPUT="matrices"
 VECTORS=0
 RUNS=1
+BUDGET=0
+READERS=1
+PARSERS=0
+STORE=0
+SPILL=0
 
 while [[ $# > 0 ]]
 do
@@ -37,10 +47,30 @@ case $key in
     OUTPUT="$2"
     shift 2
     ;;
+    --readers)
+    READERS="$2"
+    shift 2
+    ;;
+    --parsers)
+    PARSERS="$2"
+    shift 2
+    ;;
+    -b|--budget)
+    BUDGET="$2"
+    shift 2
+    ;;
     -r|--runs)
     RUNS="$2"
     shift 2
     ;;
+    --spill)
+    SPILL="$2"
+    shift 2
+    ;;
+    -c|--consolidated)
+    STORE=1
+    shift
+    ;;
     -v|--vectors)
     VECTORS=1
     shift
@@ -49,5 +79,5 @@ esac
 done
 
 java -cp build/libs/density-matrix-generator.jar dmatrix.DependencyDMatrixGenerator\
-  $CORPUS_PATH $TARGETS $DIM $NUM_THREADS $VECTORS $OUTPUT $RUNS
+  $CORPUS_PATH $TARGETS $DIM $NUM_THREADS $VECTORS $OUTPUT $RUNS $BUDGET $READERS $PARSERS $STORE $SPILL
 
@@ -5,6 +5,11 @@ where:
     -n  number of context words to use (default: 4000)
     -j  number of threads to use (default: 1)
     -p  context level normalization (default: false)
+    --readers  number of reader threads in pipeline mode (default: 1)
+    --parsers  number of parser threads, enabling pipeline mode (default: 0, workers read their own files)
+    --block  number of contexts buffered per target before each matrix update (default: 32)
+    --rank  keep a Frequent Directions sketch of this rank per target and write factors (default: 0, full matrices)
+    --packed  write packed upper triangle matrices with a dimension header (default: false)
     -o  output file (default: matrices/)"
 
 CORPUS_PATH="$1"
@@ -15,6 +20,11 @@ NUM_THREADS=1
 N=4000
 PRENORM=0
 OUTPUT="matrices"
+READERS=1
+PARSERS=0
+PACKED=0
+BLOCK=32
+RANK=0
 
 while [[ $# > 0 ]]
 do
@@ -36,6 +46,25 @@ case $key in
     OUTPUT="$2"
     shift
     ;;
+    --readers)
+    READERS="$2"
+    shift
+    ;;
+    --parsers)
+    PARSERS="$2"
+    shift
+    ;;
+    --rank)
+    RANK="$2"
+    shift
+    ;;
+    --block)
+    BLOCK="$2"
+    shift
+    ;;
+    --packed)
+    PACKED=1
+    ;;
     -p|--prenorm)
     PRENORM=1
     ;;
@@ -44,5 +73,5 @@ shift
 done
 
 java -cp build/libs/density-matrix-generator.jar dmatrix.EmbeddingDMatrixGenerator\
-  $CORPUS_PATH $TARGETS $N $VECTORS $NUM_THREADS $PRENORM $OUTPUT
+  $CORPUS_PATH $TARGETS $N $VECTORS $NUM_THREADS $PRENORM $OUTPUT $READERS $PARSERS $PACKED $BLOCK $RANK
 
@@ -6,6 +6,12 @@ where:
     -j  number of threads to use (default: 1)
     -r  number of runs to use, partitioning target words (default: 1)
     -m  JVM memory limit
+    -b  memory budget in MB for lock-free thread-local accumulation (default: 0, shared)
+    -s  single pass: estimate the wordmap from the first n lines (default: 0, full wordmap pass)
+    --readers  number of reader threads in pipeline mode (default: 1)
+    --parsers  number of parser threads, enabling pipeline mode (default: 0, workers read their own files)
+    --spill  memory budget in MB for single pass accumulation spilled to disk, replacing runs (default: 0, off)
+    -c  write all matrices to a single matrices.store file instead of one .bin file per target
     -o  output file (default: matrices/)
     -v  generate and output vector representation"
 
@@ -17,6 +23,12 @@ DIM=0
 OUTPUT="matrices"
 VECTORS=0
 RUNS=1
+BUDGET=0
+READERS=1
+PARSERS=0
+STORE=0
+SPILL=0
+SAMPLE=0
 MEM=""
 
 while [[ $# > 0 ]]
@@ -39,10 +51,34 @@ case $key in
     OUTPUT="$2"
     shift 2
     ;;
+    --spill)
+    SPILL="$2"
+    shift 2
+    ;;
+    -c|--consolidated)
+    STORE=1
+    shift
+    ;;
     -v|--vectors)
     VECTORS=1
     shift
     ;;
+    -s|--sample)
+    SAMPLE="$2"
+    shift 2
+    ;;
+    --readers)
+    READERS="$2"
+    shift 2
+    ;;
+    --parsers)
+    PARSERS="$2"
+    shift 2
+    ;;
+    -b|--budget)
+    BUDGET="$2"
+    shift 2
+    ;;
     -r|--runs)
     RUNS="$2"
     shift 2
@@ -55,5 +91,5 @@ esac
 done
 
 java $MEM -cp build/libs/density-matrix-generator.jar dmatrix.SentenceDMatrixGenerator\
-  $CORPUS_PATH $TARGETS $DIM $NUM_THREADS $VECTORS $OUTPUT $RUNS
+  $CORPUS_PATH $TARGETS $DIM $NUM_THREADS $VECTORS $OUTPUT $RUNS $BUDGET $SAMPLE $READERS $PARSERS $STORE $SPILL
 
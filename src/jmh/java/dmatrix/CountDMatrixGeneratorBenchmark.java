@@ -0,0 +1,130 @@
+package dmatrix;
+
+import dmatrix.io.Tokenizer;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds window contexts and adds them to the target matrices of a WindowDMatrixGenerator over a Zipf
+ * corpus. Matrix updates run on 1, 8 and 32 threads, either contending for the shared matrices or into
+ * thread-local shards. getContext times cover the windows around every position of one sentence, and
+ * updateMatrix times one target occurrence.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountDMatrixGeneratorBenchmark {
+
+    private static final int MAX_THREADS = 32;
+    private static final int NUM_CONTEXTS = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Generator {
+        @Param({"shared", "local"})
+        String shards;
+
+        File directory;
+        WindowDMatrixGenerator generator;
+        List<int[]> sentences;
+
+        @Setup
+        public void setup() throws IOException {
+            ZipfCorpus corpus = new ZipfCorpus(50000, 1.1, 0);
+            directory = corpus.writeText(4, 5000);
+            Set<String> targets = new HashSet<>();
+            for (int rank = 50; rank < 250; rank++) {
+                targets.add(corpus.getWord(rank));
+            }
+            generator = new WindowDMatrixGenerator(directory.getPath(), targets, 200, MAX_THREADS, false, 5);
+            if (shards.equals("local")) {
+                // Room for every target's matrix in each thread's shard, so that shards are never flushed.
+                generator.setShardMemoryBudget(1L << 30);
+            }
+            generator.setupMatrixGenerator(targets);
+            Tokenizer tokenizer = new Tokenizer(null);
+            sentences = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                sentences.add(tokenizer.tokenizeIds(corpus.nextLine(5, 40), generator.vocabulary));
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        DMatrixShard shard;
+        Context context = new Context();
+        int[] targets = new int[NUM_CONTEXTS];
+        Context[] contexts = new Context[NUM_CONTEXTS];
+        int numContexts;
+        int next;
+        int sentence;
+
+        @Setup
+        public void setup(Generator generator) {
+            shard = generator.generator.createShard();
+            int previous;
+            do {
+                previous = numContexts;
+                for (int[] ids : generator.sentences) {
+                    for (int i = 0; i < ids.length && numContexts < NUM_CONTEXTS; i++) {
+                        if (generator.generator.isTarget(ids[i])) {
+                            targets[numContexts] = ids[i];
+                            contexts[numContexts] = new Context();
+                            generator.generator.getContext(ids, i, contexts[numContexts]);
+                            numContexts++;
+                        }
+                    }
+                }
+            } while (numContexts < NUM_CONTEXTS && numContexts > previous);
+        }
+
+        void update(Generator generator) {
+            generator.generator.updateMatrix(shard, targets[next], contexts[next]);
+            next = (next + 1) % numContexts;
+        }
+    }
+
+    @Benchmark
+    public Context getContext(Generator generator, Worker worker) {
+        int[] ids = generator.sentences.get(worker.sentence);
+        worker.sentence = (worker.sentence + 1) % generator.sentences.size();
+        for (int i = 0; i < ids.length; i++) {
+            generator.generator.getContext(ids, i, worker.context);
+        }
+        return worker.context;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void updateMatrix1(Generator generator, Worker worker) {
+        worker.update(generator);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void updateMatrix8(Generator generator, Worker worker) {
+        worker.update(generator);
+    }
+
+    @Benchmark
+    @Threads(MAX_THREADS)
+    public void updateMatrix32(Generator generator, Worker worker) {
+        worker.update(generator);
+    }
+
+}
@@ -0,0 +1,91 @@
+package dmatrix;
+
+import dmatrix.io.DenseDMatrixWriter;
+import dmatrix.io.MatrixStoreWriter;
+import dmatrix.io.SparseDMatrixWriter;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes NUM_TARGETS packed matrices, whose values follow the Zipf distribution of co-occurrence counts,
+ * with the sparse and the packed dense writers, to one file per target or to a matrix store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DMatrixWriterBenchmark {
+
+    private static final int NUM_TARGETS = 32;
+
+    @Param({"sparse", "packed"})
+    String format;
+
+    @Param({"false", "true"})
+    boolean store;
+
+    @Param({"300"})
+    int dim;
+
+    File directory;
+    float[][] matrices;
+
+    @Setup
+    public void setup() {
+        ZipfCorpus corpus = new ZipfCorpus(dim, 1.1, 0);
+        Random random = new Random(0);
+        matrices = new float[NUM_TARGETS][dim * (dim + 1) / 2];
+        // Co-occurrences of Zipf distributed words, so that low ranked rows are dense and the rest sparse.
+        for (float[] matrix : matrices) {
+            for (int n = 0; n < 20000; n++) {
+                int x = corpus.nextRank();
+                int y = corpus.nextRank();
+                matrix[DMatrixShard.packedIndex(Math.min(x, y), Math.max(x, y), dim)] += 1 + random.nextInt(3);
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("dmatrix-bench-matrices").toFile();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void writeMatrices() {
+        MatrixStoreWriter storeWriter = store ? new MatrixStoreWriter(directory.getPath()) : null;
+        for (int target = 0; target < NUM_TARGETS; target++) {
+            String word = ZipfCorpus.word(target);
+            float[] matrix = matrices[target];
+            if (format.equals("sparse")) {
+                SparseDMatrixWriter writer = store ? new SparseDMatrixWriter(word, storeWriter)
+                        : new SparseDMatrixWriter(word, directory.getPath());
+                for (int x = 0; x < dim; x++) {
+                    writer.writeRow(x, x, matrix, DMatrixShard.packedIndex(x, x, dim), dim - x);
+                }
+                writer.close();
+            } else {
+                DenseDMatrixWriter writer = store ? new DenseDMatrixWriter(word, storeWriter)
+                        : new DenseDMatrixWriter(word, directory.getPath());
+                writer.writePacked(matrix, dim);
+                writer.close();
+            }
+        }
+        if (storeWriter != null) {
+            storeWriter.close();
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package dmatrix;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds embedding contexts of a Zipf corpus to the matrices of their targets with
+ * EmbeddingDMatrixGenerator.updateMatrix, at embedding dimensions of common vector sets. Times are per
+ * context.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddingDMatrixGeneratorBenchmark {
+
+    private static final int NUM_CONTEXTS = 1024;
+    private static final int NUM_CONTEXT_WORDS = 500;
+    // Vectors cover enough ranks to include every context word counted in the corpus.
+    private static final int NUM_VECTORS = 5000;
+
+    @Param({"50", "300", "1000"})
+    int dim;
+
+    File directory;
+    EmbeddingDMatrixGenerator generator;
+    String[] targets = new String[NUM_CONTEXTS];
+    float[][] contexts = new float[NUM_CONTEXTS][];
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        ZipfCorpus corpus = new ZipfCorpus(50000, 1.1, 0);
+        directory = corpus.writeText(1, 5000);
+        File targetsFile = new File(directory, "targets.tmp");
+        File vectorsFile = new File(directory, "vectors.tmp");
+        Random random = new Random(0);
+        try (PrintWriter targetsWriter = new PrintWriter(targetsFile);
+             PrintWriter vectorsWriter = new PrintWriter(vectorsFile)) {
+            for (int rank = 50; rank < 250; rank++) {
+                targetsWriter.println(corpus.getWord(rank));
+            }
+            for (int rank = 0; rank < NUM_VECTORS; rank++) {
+                StringBuilder line = new StringBuilder(corpus.getWord(rank));
+                for (int i = 0; i < dim; i++) {
+                    line.append(' ').append((float) random.nextGaussian());
+                }
+                vectorsWriter.println(line);
+            }
+        }
+        // Count words over the text file only, not the targets and vectors written next to it.
+        File corpusFile = new File(directory, "part-0.txt");
+        generator = new EmbeddingDMatrixGenerator(corpusFile.getPath(), targetsFile.getPath(), NUM_CONTEXT_WORDS,
+                vectorsFile.getPath(), 1, true);
+        generator.allocateMatrices();
+        for (int i = 0; i < NUM_CONTEXTS; i++) {
+            String[] sentence = corpus.nextSentence(5, 40);
+            targets[i] = corpus.getWord(50 + random.nextInt(200));
+            contexts[i] = generator.getContext(sentence);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void updateMatrix() {
+        generator.updateMatrix(targets[next], contexts[next]);
+        next = (next + 1) % NUM_CONTEXTS;
+    }
+
+}
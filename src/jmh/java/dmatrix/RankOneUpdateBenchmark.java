@@ -0,0 +1,82 @@
+package dmatrix;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the packed rank one update with the jagged loop it replaced, and with a block of BLOCK_SIZE
+ * updates applied at once, at embedding dimensions of common vector sets. Block times cover BLOCK_SIZE updates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankOneUpdateBenchmark {
+
+    private static final int BLOCK_SIZE = 32;
+
+    @Param({"50", "300", "1000"})
+    int dim;
+
+    float[] vector;
+    float squareNorm;
+    float[] packed;
+    float[][] jagged;
+    float[] block;
+    float[] scales;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        vector = new float[dim];
+        for (int i = 0; i < dim; i++) {
+            vector[i] = (float) random.nextGaussian();
+            squareNorm += vector[i] * vector[i];
+        }
+        packed = new float[dim * (dim + 1) / 2];
+        block = new float[BLOCK_SIZE * dim];
+        scales = new float[BLOCK_SIZE];
+        for (int r = 0; r < BLOCK_SIZE; r++) {
+            System.arraycopy(vector, 0, block, r * dim, dim);
+            scales[r] = 1.0f / squareNorm;
+        }
+        jagged = new float[dim][];
+        for (int i = 0; i < dim; i++) {
+            jagged[i] = new float[dim - i];
+        }
+    }
+
+    @Benchmark
+    public float[] packed() {
+        RankOneUpdate.update(packed, vector, 1.0f / squareNorm, dim);
+        return packed;
+    }
+
+    @Benchmark
+    public float[][] jagged() {
+        updateJagged(jagged, vector, squareNorm, dim);
+        return jagged;
+    }
+
+    @Benchmark
+    public float[] block() {
+        RankOneUpdate.updateBlock(packed, block, scales, BLOCK_SIZE, dim);
+        return packed;
+    }
+
+    /**
+     * The jagged update EmbeddingDMatrixGenerator used before the packed kernel, dividing each product by norm.
+     */
+    private static void updateJagged(float[][] rows, float[] vector, float norm, int dim) {
+        for (int i = 0; i < dim; i++) {
+            for (int j = 0; j < dim - i; j++) {
+                rows[i][j] += vector[i] * vector[i + j] / norm;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package dmatrix;
+
+import dmatrix.io.Sentence;
+import dmatrix.io.SentenceStream;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a parsed Zipf corpus of NUM_SENTENCES sentences with SentenceStream.getSentence, for target sets
+ * of common and of rare words. Sentences without a target are skipped without reading their dependencies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SentenceStreamBenchmark {
+
+    private static final int NUM_SENTENCES = 20000;
+
+    @Param({"common", "rare"})
+    String targetWords;
+
+    File directory;
+    String path;
+    Set<String> targets;
+
+    @Setup
+    public void setup() throws IOException {
+        ZipfCorpus corpus = new ZipfCorpus(50000, 1.1, 0);
+        directory = corpus.writeParsed(1, NUM_SENTENCES);
+        path = new File(directory, "part-0.gz").getPath();
+        targets = new HashSet<>();
+        int start = targetWords.equals("common") ? 50 : 20000;
+        for (int rank = start; rank < start + 200; rank++) {
+            targets.add(corpus.getWord(rank));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public long getSentence() throws IOException {
+        SentenceStream stream = new SentenceStream(path, targets);
+        long numDependencies = 0;
+        Sentence sentence;
+        while ((sentence = stream.getSentence()) != null) {
+            numDependencies += sentence.numDependencies();
+        }
+        stream.close();
+        return numDependencies;
+    }
+
+}
@@ -0,0 +1,79 @@
+package dmatrix;
+
+import dmatrix.io.TokenizedFileReader;
+import dmatrix.io.Tokenizer;
+import dmatrix.io.Vocabulary;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenizes lines of a Zipf corpus, one String at a time with tokenizeLine, and by scanning a file into
+ * vocabulary ids with readLineIds. Times cover NUM_LINES lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final int NUM_LINES = 10000;
+
+    File directory;
+    String path;
+    String[] lines;
+    TokenizedFileReader reader;
+    Vocabulary vocabulary;
+
+    @Setup
+    public void setup() throws IOException {
+        ZipfCorpus corpus = new ZipfCorpus(50000, 1.1, 0);
+        directory = corpus.writeText(1, NUM_LINES);
+        path = new File(directory, "part-0.txt").getPath();
+        lines = new String[NUM_LINES];
+        for (int i = 0; i < NUM_LINES; i++) {
+            lines[i] = corpus.nextLine(5, 40);
+        }
+        reader = new TokenizedFileReader(path, Tokenizer.getStopWordTable(null));
+        Map<String, Integer> wordMap = new HashMap<>();
+        for (int rank = 0; rank < 10000; rank++) {
+            wordMap.put(corpus.getWord(rank), rank);
+        }
+        vocabulary = new Vocabulary(wordMap, Arrays.asList(corpus.getWord(20000)));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void tokenizeLine(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(reader.tokenizeLine(line));
+        }
+    }
+
+    @Benchmark
+    public long readLineIds() {
+        TokenizedFileReader fileReader = new TokenizedFileReader(path, Tokenizer.getStopWordTable(null));
+        long numIds = 0;
+        int[] ids;
+        while ((ids = fileReader.readLineIds(vocabulary)) != null) {
+            numIds += ids.length;
+        }
+        fileReader.close();
+        return numIds;
+    }
+
+}
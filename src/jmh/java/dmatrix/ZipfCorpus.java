@@ -0,0 +1,123 @@
+package dmatrix;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Synthetic corpora for the benchmarks, whose word frequencies follow Zipf's law as those of natural text do.
+ * <p>
+ * Words are letter strings, as the tokenizer drops tokens with digits, and the word of rank r occurs with
+ * probability proportional to 1 / (r + 1)^exponent. Corpora are written to local files, as plain text for
+ * the count generators and as gzipped MessagePack parses for the dependency generator.
+ */
+class ZipfCorpus {
+
+    private static final String[] RELATIONS = {"nsubj", "dobj", "amod", "nmod:of", "det", "punct", "case", "advmod"};
+
+    private final String[] words;
+    private final double[] cumulative;
+    private final Random random;
+
+    ZipfCorpus(int vocabularySize, double exponent, long seed) {
+        words = new String[vocabularySize];
+        cumulative = new double[vocabularySize];
+        double total = 0;
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            words[rank] = word(rank);
+            total += 1.0 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            cumulative[rank] /= total;
+        }
+        random = new Random(seed);
+    }
+
+    /**
+     * Letter string naming a rank: a, b, ..., z, ba, bb, ...
+     */
+    static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append((char) ('a' + rank % 26));
+            rank /= 26;
+        } while (rank > 0);
+        return word.reverse().toString();
+    }
+
+    String getWord(int rank) {
+        return words[rank];
+    }
+
+    int nextRank() {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, words.length - 1);
+    }
+
+    String[] nextSentence(int minWords, int maxWords) {
+        String[] sentence = new String[minWords + random.nextInt(maxWords - minWords + 1)];
+        for (int i = 0; i < sentence.length; i++) {
+            sentence[i] = words[nextRank()];
+        }
+        return sentence;
+    }
+
+    String nextLine(int minWords, int maxWords) {
+        return String.join(" ", nextSentence(minWords, maxWords));
+    }
+
+    /**
+     * Writes numFiles text files of numLines lines each into a new temporary directory.
+     */
+    File writeText(int numFiles, int numLines) throws IOException {
+        File directory = Files.createTempDirectory("dmatrix-bench-text").toFile();
+        for (int f = 0; f < numFiles; f++) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(directory, String.format("part-%d.txt", f))),
+                    StandardCharsets.UTF_8))) {
+                for (int i = 0; i < numLines; i++) {
+                    writer.write(nextLine(5, 40));
+                    writer.write('\n');
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Writes numFiles parsed corpus files of numSentences sentences each into a new temporary directory. Every
+     * word but the first depends on a random word of its sentence.
+     */
+    File writeParsed(int numFiles, int numSentences) throws IOException {
+        File directory = Files.createTempDirectory("dmatrix-bench-parsed").toFile();
+        for (int f = 0; f < numFiles; f++) {
+            File file = new File(directory, String.format("part-%d.gz", f));
+            try (MessagePacker packer = MessagePack.newDefaultPacker(
+                    new GZIPOutputStream(new FileOutputStream(file), 1 << 16))) {
+                for (int s = 0; s < numSentences; s++) {
+                    String[] sentence = nextSentence(5, 40);
+                    packer.packArrayHeader(sentence.length);
+                    for (String word : sentence) {
+                        packer.packString(word);
+                    }
+                    // Dependencies are stored as flat (relation, head, dependent) values, positions from 1.
+                    packer.packArrayHeader(sentence.length - 1);
+                    for (int i = 1; i < sentence.length; i++) {
+                        packer.packString(RELATIONS[random.nextInt(RELATIONS.length)]);
+                        packer.packInt(random.nextInt(sentence.length) + 1);
+                        packer.packInt(i + 1);
+                    }
+                }
+            }
+        }
+        return directory;
+    }
+
+}
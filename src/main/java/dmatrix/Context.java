@@ -0,0 +1,60 @@
+package dmatrix;
+
+import java.util.Arrays;
+
+/**
+ * Reusable sparse context of vocabulary ids and counts.
+ * <p>
+ * Ids are appended with add() and then sorted and merged by compact(), after which ids holds distinct
+ * ids in ascending order and counts holds how often each occurred.
+ */
+class Context {
+
+    int[] ids;
+    int[] counts;
+    int size;
+
+    Context() {
+        ids = new int[16];
+        counts = new int[16];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            counts = Arrays.copyOf(counts, 2 * size);
+        }
+        ids[size++] = id;
+    }
+
+    void compact() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.sort(ids, 0, size);
+        int distinct = 0;
+        counts[0] = 1;
+        for (int i = 1; i < size; i++) {
+            if (ids[i] == ids[distinct]) {
+                counts[distinct]++;
+            } else {
+                distinct++;
+                ids[distinct] = ids[i];
+                counts[distinct] = 1;
+            }
+        }
+        size = distinct + 1;
+    }
+
+    /**
+     * Position of id in a compacted context, or a negative value if it does not occur.
+     */
+    int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+}
@@ -0,0 +1,199 @@
+package dmatrix;
+
+import dmatrix.io.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a text corpus into the binary format read by CompiledCorpusReader.
+ * <p>
+ * The corpus is decompressed and tokenized once. Tokens are written as provisional ids while word counts
+ * are collected, and the provisional ids are then rewritten to frequency ranks. Generators and wordmap
+ * generators given the output directory as corpus root then skip gzip, tokenization and the counting pass.
+ * <p>
+ * Every line is kept as a sentence, including lines without tokens, so that line counts and sampled
+ * prefixes match those of the text corpus.
+ */
+public class CorpusCompiler {
+
+    private String corpusRoot;
+    private String outputPath;
+    private int numThreads;
+    private TokenizedFileReaderFactory tokenizedFileReaderFactory;
+
+    private final Map<String, Integer> provisionalIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private long[] counts = new long[0];
+
+    public static void main(String[] args) {
+        String corpusRoot = args[0];
+        String outputPath = args[1];
+        int numThreads = Integer.parseInt(args[2]);
+        new CorpusCompiler(corpusRoot, outputPath, numThreads).compile();
+    }
+
+    public CorpusCompiler(String corpusRoot, String outputPath, int numThreads) {
+        this.corpusRoot = corpusRoot;
+        this.outputPath = outputPath;
+        this.numThreads = numThreads;
+        this.tokenizedFileReaderFactory = new TokenizedFileReaderFactory();
+    }
+
+    public void compile() {
+        System.out.println("Compiling corpus...");
+        long startTime = System.nanoTime();
+        try {
+            Files.createDirectories(Paths.get(outputPath));
+        } catch (IOException e) {
+            System.out.println(String.format("Unable to create output directory %s.", outputPath));
+            return;
+        }
+        List<String> filePaths = IOUtils.getFilePaths(corpusRoot);
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        for (int i = 0; i < filePaths.size(); i++) {
+            pool.submit(new EncodeWorker(filePaths.get(i), getPartPath(i) + ".tmp"));
+        }
+        if (!awaitTermination(pool)) {
+            return;
+        }
+
+        // Rank words by decreasing frequency, breaking ties alphabetically.
+        String[] words = new String[nextId.get()];
+        for (Map.Entry<String, Integer> entry : provisionalIds.entrySet()) {
+            words[entry.getValue()] = entry.getKey();
+        }
+        Integer[] order = new Integer[words.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> counts[a] != counts[b]
+                ? Long.compare(counts[b], counts[a]) : words[a].compareTo(words[b]));
+        int[] ranks = new int[words.length];
+        String[] rankedWords = new String[words.length];
+        long[] rankedCounts = new long[words.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            ranks[order[rank]] = rank;
+            rankedWords[rank] = words[order[rank]];
+            rankedCounts[rank] = counts[order[rank]];
+        }
+
+        pool = Executors.newFixedThreadPool(numThreads);
+        for (int i = 0; i < filePaths.size(); i++) {
+            pool.submit(new RemapWorker(getPartPath(i) + ".tmp", getPartPath(i), ranks));
+        }
+        if (!awaitTermination(pool)) {
+            return;
+        }
+        try {
+            CompiledCorpus.writeVocabulary(outputPath, rankedWords, rankedCounts);
+        } catch (IOException e) {
+            System.out.println("Unable to write corpus vocabulary.");
+            e.printStackTrace();
+        }
+        System.out.println(String.format("Compiled %d files with %d words in %d seconds", filePaths.size(),
+                words.length, (System.nanoTime() - startTime) / 1000000000));
+    }
+
+    private String getPartPath(int index) {
+        return Paths.get(outputPath, String.format("part-%05d.%s", index, CompiledCorpus.EXTENSION)).toString();
+    }
+
+    /**
+     * Waits for the workers of a pool, stopping them if the compiling thread is interrupted.
+     *
+     * @return false if interrupted, leaving the output incomplete
+     */
+    private static boolean awaitTermination(ExecutorService pool) {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted while compiling corpus, output is incomplete.");
+            return false;
+        }
+    }
+
+    private synchronized void updateCounts(long[] diff) {
+        if (counts.length < diff.length) {
+            counts = Arrays.copyOf(counts, diff.length);
+        }
+        for (int i = 0; i < diff.length; i++) {
+            counts[i] += diff[i];
+        }
+    }
+
+    private class EncodeWorker implements Runnable {
+        private String inputPath;
+        private String outputPath;
+
+        EncodeWorker(String inputPath, String outputPath) {
+            this.inputPath = inputPath;
+            this.outputPath = outputPath;
+        }
+
+        public void run() {
+            long[] fileCounts = new long[1024];
+            TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(inputPath);
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputPath), 1 << 16)) {
+                String[] tokens;
+                while ((tokens = reader.readLineTokens()) != null) {
+                    CompiledCorpus.writeVarint(outputStream, tokens.length);
+                    for (String token : tokens) {
+                        int id = provisionalIds.computeIfAbsent(token, word -> nextId.getAndIncrement());
+                        if (id >= fileCounts.length) {
+                            fileCounts = Arrays.copyOf(fileCounts, Math.max(id + 1, 2 * fileCounts.length));
+                        }
+                        fileCounts[id]++;
+                        CompiledCorpus.writeVarint(outputStream, id);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println(String.format("Unable to encode file %s, %s.", inputPath, e.getMessage()));
+            }
+            reader.close();
+            updateCounts(fileCounts);
+        }
+    }
+
+    private class RemapWorker implements Runnable {
+        private String inputPath;
+        private String outputPath;
+        private int[] ranks;
+
+        RemapWorker(String inputPath, String outputPath, int[] ranks) {
+            this.inputPath = inputPath;
+            this.outputPath = outputPath;
+            this.ranks = ranks;
+        }
+
+        public void run() {
+            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(inputPath), 1 << 16);
+                 OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputPath), 1 << 16)) {
+                int length;
+                while ((length = CompiledCorpus.readVarint(inputStream)) >= 0) {
+                    CompiledCorpus.writeVarint(outputStream, length);
+                    for (int i = 0; i < length; i++) {
+                        CompiledCorpus.writeVarint(outputStream, ranks[CompiledCorpus.readVarint(inputStream)]);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println(String.format("Unable to remap file %s, %s.", inputPath, e.getMessage()));
+            }
+            if (!new File(inputPath).delete()) {
+                System.out.println(String.format("Unable to delete temporary file %s.", inputPath));
+            }
+        }
+    }
+
+}
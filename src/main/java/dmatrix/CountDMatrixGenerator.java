@@ -5,8 +5,15 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -16,6 +23,9 @@ import java.util.stream.Collectors;
  */
 public abstract class CountDMatrixGenerator {
 
+    // Least number of packed target matrices a local shard must have room for before it is flushed.
+    private static final int MIN_SHARD_TARGETS = 8;
+
     // Runtime parameters.
     String corpusRoot;
     int numThreads;
@@ -24,33 +34,85 @@ public abstract class CountDMatrixGenerator {
     private boolean getVectors;
     boolean softCutoff;
     Set<String> allTargets;
+    private long shardMemoryBudget;
+    private long spillMemoryBudget;
+    private int spillFanIn = SpillRun.DEFAULT_FAN_IN;
+    int numReaders;
+    int numParsers;
+    private boolean consolidatedOutput;
+    int sampleLines;
 
     private List<Set<String>> targetPartitions;
+    // Corpus frequency of each target from the wordmap pass, or from the sample in single pass mode, used to
+    // balance target partitions.
+    private Map<String, Long> targetFrequencies = Collections.emptyMap();
     Set<String> targets;
     Map<String, Integer> wordMap;
-    private DataCell[][] densityMatrices;
-    private Map<String, Map<Pair<Integer, Integer>, Float>> densityMatricesSparse;
-    private DataCell[] vectors;
+    Vocabulary vocabulary;
+    // Target-major storage, indexed by target id. targetSlots maps vocabulary ids to target ids, or -1.
+    private Map<String, Integer> targetIds;
+    private String[] targetWords;
+    private int[] targetSlots;
+    private DMatrixShard densityMatrices;
+    private final List<DMatrixShard> localShards = new ArrayList<>();
+    // Size at which a local shard is flushed into the global matrices, the per-thread share of the budget.
+    private long shardFlushBytes;
+    // Spill mode: sorted runs of the matrices written out by local shards, and the directory holding them.
+    private final List<SpillRun> spillRuns = new ArrayList<>();
+    private File spillDirectory;
+    // Size at which a local shard is spilled, the per-thread share of the spill budget.
+    private long spillBytes;
+    // Single pass mode: exact word counts gathered during the run, and the frequency rank of each
+    // provisional vocabulary id computed from them at the end of the run.
+    private long[] wordCounts;
+    private int[] finalRanks;
 
     CountDMatrixGenerator(String corpusRoot, Set<String> targets, int dim, int numThreads,
                           int numRuns, boolean getVectors) {
+        this(corpusRoot, targets, dim, numThreads, numRuns, getVectors, 0);
+    }
+
+    /**
+     * @param sampleLines if positive, run in single pass mode. The wordmap is estimated from this many
+     *                    lines at the start of the corpus, co-occurrences are accumulated against these
+     *                    provisional ids, and the output is relabeled with exact frequency ranks counted
+     *                    during the matrix pass. With a soft cutoff, words missing from the sample are added
+     *                    as they are seen and the output is exact. With a hard cutoff, the context words
+     *                    are the most frequent words of the sample. Target partitions are planned before the
+     *                    pass, so they are balanced on target counts within the sample only.
+     */
+    CountDMatrixGenerator(String corpusRoot, Set<String> targets, int dim, int numThreads,
+                          int numRuns, boolean getVectors, int sampleLines) {
         this.corpusRoot = corpusRoot;
         this.numThreads = numThreads;
         this.numRuns = numRuns;
         this.getVectors = getVectors;
         this.allTargets = targets;
+        this.sampleLines = sampleLines;
         generateWordmap(dim);
+        vocabulary = new Vocabulary(wordMap, targets, sampleLines > 0 && softCutoff);
         targetPartitions = partitionTargets(targets, numRuns);
     }
 
     abstract void generateWordmap(int dim);
 
+    /**
+     * Records the corpus frequency of each target, called by generateWordmap once words are counted.
+     */
+    void setTargetFrequencies(ToLongFunction<String> counts) {
+        targetFrequencies = new HashMap<>(allTargets.size());
+        for (String target : allTargets) {
+            targetFrequencies.put(target, counts.applyAsLong(target));
+        }
+    }
+
     abstract void generateMatricesRun();
 
     public void generateMatrices() {
-        if (numRuns == 1) {
-            setupMatrixGenerator(targetPartitions.get(0));
+        if (numRuns == 1 || spillMemoryBudget > 0) {
+            setupMatrixGenerator(runPartitions().get(0));
             this.generateMatricesRun();
+            rankWords();
         } else {
             System.out.println(
                     "Running generate matrices on multiple target partitions, only last partitions will be stored.");
@@ -62,9 +124,10 @@ public abstract class CountDMatrixGenerator {
         if (getVectors && f.exists() && !f.delete()) {
             System.out.println("Deleting previous vectors failed.");
         }
-        for (Set<String> targetPartition : targetPartitions) {
+        for (Set<String> targetPartition : runPartitions()) {
             setupMatrixGenerator(targetPartition);
             this.generateMatricesRun();
+            rankWords();
             this.writeMatrices(outputPath);
             if (getVectors) {
                 this.writeVectors(outputPath);
@@ -73,34 +136,301 @@ public abstract class CountDMatrixGenerator {
         }
     }
 
-    private void setupMatrixGenerator(Set<String> targets) {
+    /**
+     * Enables thread-local accumulation. Each worker accumulates into its own shard without locking, and
+     * the shards are merged at the end of the run. A shard whose estimated size exceeds its share of the
+     * budget is flushed into the global matrices early. Shares smaller than a few target matrices are raised
+     * when the run is set up, so that a flush only follows substantial growth of the shard. A budget of 0
+     * restores shared, locked accumulation.
+     *
+     * @param memoryBudget total bytes allowed for all thread-local shards
+     */
+    public void setShardMemoryBudget(long memoryBudget) {
+        this.shardMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * Enables spill mode, which covers all targets in a single pass over the corpus whatever the number of
+     * runs. Each worker accumulates into its own shard, and writes it to disk as a sorted run of
+     * (target, x, y, value) records whenever its estimated size exceeds its share of the budget. The runs
+     * are combined by an external merge when the matrices are written. As with setShardMemoryBudget, shares
+     * smaller than a few target matrices are raised. A budget of 0 disables spilling.
+     *
+     * @param memoryBudget total bytes allowed for all thread-local shards
+     */
+    public void setSpillMemoryBudget(long memoryBudget) {
+        this.spillMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the number of spill runs merged at once, 64 by default. Each holds an open file and a read buffer
+     * during the merge, and more runs are first merged in groups of this size into intermediate runs.
+     */
+    public void setSpillFanIn(int fanIn) {
+        this.spillFanIn = fanIn;
+    }
+
+    /**
+     * Target partitions processed by separate passes over the corpus, a single one in spill mode.
+     */
+    private List<Set<String>> runPartitions() {
+        return spillMemoryBudget > 0 ? Collections.singletonList(allTargets) : targetPartitions;
+    }
+
+    /**
+     * Enables the staged pipeline. Reader threads read lines and parser threads tokenize them into ids,
+     * leaving the numThreads workers to only accumulate matrices. Parsers of 0 restores workers reading
+     * and tokenizing their own files. Compiled corpora are always read directly by the workers.
+     *
+     * @param numReaders number of threads reading and decompressing files
+     * @param numParsers number of threads tokenizing lines
+     */
+    public void setPipeline(int numReaders, int numParsers) {
+        this.numReaders = numReaders;
+        this.numParsers = numParsers;
+    }
+
+    /**
+     * Runs workers over the corpus, either directly or as the last stage of the pipeline.
+     */
+    <W extends FileScheduler.Worker & Pipeline.Consumer<int[]>> void runWorkers(List<W> workers) {
+        FileScheduler scheduler = new FileScheduler(corpusRoot, FileScheduler.DEFAULT_SPLIT_SIZE);
+        if (numParsers <= 0 || CompiledCorpus.isCompiled(corpusRoot)) {
+            scheduler.run(workers);
+            return;
+        }
+        TokenizedFileReaderFactory tokenizedFileReaderFactory = new TokenizedFileReaderFactory();
+        new Pipeline<String, int[]>(scheduler, Math.max(numReaders, 1), numParsers).run(Pipeline::lines, () -> {
+            Tokenizer tokenizer = tokenizedFileReaderFactory.getTokenizer();
+            return line -> tokenizer.tokenizeIds(line, vocabulary);
+        }, workers);
+    }
+
+    /**
+     * Writes all matrices to a single matrix store in the output directory, appending one segment per
+     * run, instead of one .bin file per target.
+     */
+    public void setConsolidatedOutput(boolean consolidatedOutput) {
+        this.consolidatedOutput = consolidatedOutput;
+    }
+
+    void setupMatrixGenerator(Set<String> targets) {
         this.targets = targets;
-        densityMatricesSparse = new HashMap<>();
+        targetIds = new HashMap<>(targets.size());
+        targetWords = new String[targets.size()];
+        targetSlots = new int[vocabulary.size()];
+        Arrays.fill(targetSlots, -1);
+        int targetId = 0;
         for (String target : targets) {
-            densityMatricesSparse.put(target, new HashMap<>());
+            targetIds.put(target, targetId);
+            targetWords[targetId] = target;
+            targetSlots[vocabulary.getId(target)] = targetId;
+            targetId++;
         }
-        densityMatrices = new DataCell[cutoff][];
-        for (int i = 0; i < cutoff; i++) {
-            densityMatrices[i] = new DataCell[cutoff - i];
-            for (int j = 0; j < cutoff - i; j++) {
-                densityMatrices[i][j] = new DataCell();
+        densityMatrices = new DMatrixShard(targetWords.length, cutoff, getVectors, true);
+        localShards.clear();
+        shardFlushBytes = threadBudget(shardMemoryBudget, "Shard");
+        spillBytes = threadBudget(spillMemoryBudget, "Spill");
+        deleteSpillRuns();
+        if (spillMemoryBudget > 0) {
+            try {
+                spillDirectory = Files.createTempDirectory("dmatrix-spill").toFile();
+            } catch (IOException e) {
+                // Runs then go to the default temporary directory.
+                System.out.println("Unable to create spill directory.");
+                e.printStackTrace();
             }
         }
-        if (getVectors) {
-            vectors = new DataCell[cutoff];
-            for (int i = 0; i < cutoff; i++) {
-                vectors[i] = new DataCell();
+        wordCounts = sampleLines > 0 ? new long[vocabulary.size()] : null;
+        finalRanks = null;
+    }
+
+    /**
+     * Per-thread share of a memory budget, raised to the footprint of MIN_SHARD_TARGETS packed matrices when
+     * it is smaller. Below that, a shard holding a single target would be flushed or spilled after every
+     * update.
+     */
+    private long threadBudget(long memoryBudget, String mode) {
+        if (memoryBudget <= 0) {
+            return 0;
+        }
+        long budget = memoryBudget / Math.max(numThreads, 1);
+        long minBudget = MIN_SHARD_TARGETS * DMatrixShard.estimateTargetBytes(1, cutoff, cutoff, false, getVectors);
+        if (budget < minBudget) {
+            System.out.println(String.format(
+                    "%s memory budget of %d bytes per thread is below %d target matrices, raising it to %d bytes.",
+                    mode, budget, MIN_SHARD_TARGETS, minBudget));
+            return minBudget;
+        }
+        return budget;
+    }
+
+    /**
+     * Counts the words of a sentence into a worker's counts in single pass mode.
+     *
+     * @return the counts, grown if the vocabulary has grown
+     */
+    long[] countWords(long[] counts, int[] ids) {
+        if (sampleLines <= 0) {
+            return counts;
+        }
+        for (int id : ids) {
+            if (id >= 0) {
+                if (id >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.max(id + 1, 2 * counts.length));
+                }
+                counts[id]++;
+            }
+        }
+        return counts;
+    }
+
+    void mergeWordCounts(long[] counts) {
+        if (sampleLines <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (wordCounts.length < counts.length) {
+                wordCounts = Arrays.copyOf(wordCounts, counts.length);
+            }
+            for (int i = 0; i < counts.length; i++) {
+                wordCounts[i] += counts[i];
+            }
+        }
+    }
+
+    /**
+     * In single pass mode, ranks the context words by their exact counts and replaces the sampled wordmap.
+     */
+    private void rankWords() {
+        if (sampleLines <= 0) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < wordCounts.length; id++) {
+            if (wordCounts[id] > 0 && vocabulary.isContext(id)) {
+                ids.add(id);
+            }
+        }
+        ids.sort((a, b) -> Long.compare(wordCounts[b], wordCounts[a]));
+        finalRanks = new int[vocabulary.size()];
+        Arrays.fill(finalRanks, -1);
+        Map<String, Integer> rankedWordMap = new HashMap<>(ids.size());
+        for (int rank = 0; rank < ids.size(); rank++) {
+            finalRanks[ids.get(rank)] = rank;
+            rankedWordMap.put(vocabulary.getWord(ids.get(rank)), rank);
+        }
+        System.out.println(String.format("Sampled wordmap of %d words ranked into %d words",
+                wordMap.size(), rankedWordMap.size()));
+        wordMap = rankedWordMap;
+    }
+
+    /**
+     * Output index of a vocabulary id, which differs from the id only in single pass mode.
+     */
+    private int rank(int id) {
+        return finalRanks == null ? id : finalRanks[id];
+    }
+
+    /**
+     * Returns the shard a new worker should accumulate into: its own local shard in thread-local mode, and
+     * the shared global matrices otherwise.
+     */
+    DMatrixShard createShard() {
+        if (shardMemoryBudget <= 0 && spillMemoryBudget <= 0) {
+            return densityMatrices;
+        }
+        DMatrixShard shard = new DMatrixShard(targetWords.length, cutoff, getVectors, false);
+        synchronized (localShards) {
+            localShards.add(shard);
+        }
+        return shard;
+    }
+
+    /**
+     * Merges all local shards into the global matrices with a parallel tree reduction. Called at the end
+     * of generateMatricesRun, once all workers have finished.
+     */
+    void mergeShards() {
+        if (localShards.isEmpty()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        if (spillMemoryBudget > 0) {
+            for (DMatrixShard shard : localShards) {
+                spill(shard);
+            }
+            localShards.clear();
+            int numRuns = spillRuns.size();
+            try {
+                // Merged once here, rather than on every later read of the runs.
+                List<SpillRun> reduced = SpillRun.reduce(new ArrayList<>(spillRuns), spillFanIn, true);
+                spillRuns.clear();
+                spillRuns.addAll(reduced);
+            } catch (IOException e) {
+                System.out.println("IOException thrown merging spill runs. Matrices potentially incomplete.");
+                e.printStackTrace();
+            }
+            long spilledBytes = 0;
+            for (SpillRun run : spillRuns) {
+                spilledBytes += run.length();
+            }
+            System.out.println(String.format("Spilled %d runs, merged into %d runs of %d MB in total, final spill "
+                    + "took %d seconds", numRuns, spillRuns.size(), spilledBytes >> 20,
+                    (System.nanoTime() - startTime) / 1000000000));
+            return;
+        }
+        List<DMatrixShard> shards = new ArrayList<>(localShards);
+        localShards.clear();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        for (int step = 1; step < shards.size(); step *= 2) {
+            List<Future<?>> merges = new ArrayList<>();
+            for (int i = 0; i + step < shards.size(); i += 2 * step) {
+                DMatrixShard dest = shards.get(i);
+                DMatrixShard source = shards.get(i + step);
+                merges.add(pool.submit(() -> source.mergeInto(dest)));
+            }
+            for (Future<?> merge : merges) {
+                try {
+                    merge.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
             }
         }
+        pool.shutdown();
+        shards.get(0).mergeInto(densityMatrices);
+        System.out.println(String.format("Shard merge took %d seconds",
+                (System.nanoTime() - startTime) / 1000000000));
     }
 
+    /**
+     * Loads target words, skipping those whose matrices were already written to the output directory.
+     */
     static Set<String> loadTargets(String targetsPath, String outputPath) {
+        Set<String> written = null;
+        if (MatrixStore.exists(outputPath)) {
+            try {
+                MatrixStore store = MatrixStore.open(outputPath);
+                written = new HashSet<>(store.words());
+                store.close();
+            } catch (IOException e) {
+                System.out.println(String.format("Unable to read matrix store in %s.", outputPath));
+                e.printStackTrace();
+            }
+        }
         Set<String> targets = new HashSet<>();
         TextFileReader reader = new TextFileReader(targetsPath);
         String line;
         while ((line = reader.readLine()) != null) {
             String[] tmp = line.split("\\s+");
             for (String s : tmp) {
+                if (written != null) {
+                    if (!written.contains(s.toLowerCase())) {
+                        targets.add(s.toLowerCase());
+                    }
+                    continue;
+                }
                 File matrixFile = new File(Paths.get(outputPath, s + ".bin").toString());
                 if (!matrixFile.exists()) {
                     targets.add(s.toLowerCase());
@@ -110,55 +440,143 @@ public abstract class CountDMatrixGenerator {
         return targets;
     }
 
-    private static List<Set<String>> partitionTargets(Set<String> targets, int numPartitions) {
-        List<String> targetsList = targets.stream().collect(Collectors.toList());
-        int partitionSize = (int) Math.ceil((float) targetsList.size() / numPartitions);
+    /**
+     * Splits targets into partitions of balanced predicted memory, largest target first into the partition
+     * with the least predicted memory so far, and prints the predicted peak heap of each partition.
+     */
+    private List<Set<String>> partitionTargets(Set<String> targets, int numPartitions) {
+        int dim = softCutoff ? wordMap.size() : cutoff;
+        Map<String, Long> costs = new HashMap<>(targets.size());
+        for (String target : targets) {
+            costs.put(target, DMatrixShard.estimateTargetBytes(targetFrequencies.getOrDefault(target, 0L),
+                    cutoff, dim, softCutoff, getVectors));
+        }
+        List<String> targetsList = new ArrayList<>(targets);
+        // Break ties by frequency, then by word, so that the partitions do not depend on set order.
+        targetsList.sort(Comparator.comparing((String target) -> costs.get(target)).reversed()
+                .thenComparing(target -> targetFrequencies.getOrDefault(target, 0L), Comparator.reverseOrder())
+                .thenComparing(Comparator.naturalOrder()));
+        numPartitions = Math.min(numPartitions, targetsList.size());
         List<Set<String>> targetPartitions = new ArrayList<>(numPartitions);
-        for (int i = 0; i < targetsList.size(); i += partitionSize) {
-            targetPartitions.add(
-                    new HashSet<>(targetsList.subList(i, Math.min(i + partitionSize, targetsList.size()))));
+        long[] partitionBytes = new long[numPartitions];
+        long[] partitionOccurrences = new long[numPartitions];
+        PriorityQueue<Integer> partitions = new PriorityQueue<>(Math.max(numPartitions, 1),
+                Comparator.comparingLong((Integer i) -> partitionBytes[i])
+                        .thenComparingLong(i -> partitionOccurrences[i]).thenComparingInt(i -> i));
+        for (int i = 0; i < numPartitions; i++) {
+            targetPartitions.add(new HashSet<>());
+            partitions.add(i);
+        }
+        for (String target : targetsList) {
+            int partition = partitions.poll();
+            targetPartitions.get(partition).add(target);
+            partitionBytes[partition] += costs.get(target);
+            partitionOccurrences[partition] += targetFrequencies.getOrDefault(target, 0L);
+            partitions.add(partition);
+        }
+        for (int i = 0; i < numPartitions; i++) {
+            System.out.println(String.format("Partition %d: %d targets, %d occurrences%s, predicted peak heap %d MB",
+                    i, targetPartitions.get(i).size(), partitionOccurrences[i],
+                    sampleLines > 0 ? " in the sampled lines" : "", partitionBytes[i] >> 20));
         }
         return targetPartitions;
+    }
 
+    boolean isTarget(int id) {
+        return id >= 0 && id < targetSlots.length && targetSlots[id] >= 0;
     }
 
-    void updateMatrix(String target, Map<String, Integer> context) {
-        List<Pair<Integer, Integer>> intContext = context.entrySet().stream().map(
-                entry -> new ImmutablePair<>(wordMap.get(entry.getKey()), entry.getValue()))
-                .sorted().collect(Collectors.toList());
-        int index = 0;
-        for (Pair<Integer, Integer> outer : intContext) {
-            for (Pair<Integer, Integer> inner : intContext.subList(index, intContext.size())) {
-                int x = outer.getLeft();
-                int y = inner.getLeft();
-                if (x < cutoff && y < cutoff) {
-                    densityMatrices[x][y - x]
-                            .updateEntry(target, outer.getRight() * inner.getRight());
+    /**
+     * Adds the outer product of a compacted context to the matrix of a target.
+     *
+     * @param target vocabulary id of the target
+     */
+    void updateMatrix(DMatrixShard shard, int target, Context context) {
+        int targetId = targetSlots[target];
+        float[] matrix = shard.getOrCreateMatrix(targetId);
+        if (shard.isShared()) {
+            synchronized (matrix) {
+                updateMatrix(shard, targetId, matrix, context);
+            }
+        } else {
+            updateMatrix(shard, targetId, matrix, context);
+            if (spillMemoryBudget > 0) {
+                if (shard.estimatedBytes() > spillBytes) {
+                    spill(shard);
+                }
+            } else if (shard.estimatedBytes() > shardFlushBytes) {
+                shard.mergeInto(densityMatrices);
+            }
+        }
+    }
+
+    /**
+     * Writes the matrices of a local shard to a new spill run, moves its vectors into the global shard, and
+     * clears it.
+     */
+    private void spill(DMatrixShard shard) {
+        try {
+            SpillRun run = SpillRun.write(shard, cutoff, spillDirectory);
+            synchronized (spillRuns) {
+                spillRuns.add(run);
+            }
+        } catch (IOException e) {
+            System.out.println("IOException thrown writing spill run. Matrices potentially incomplete.");
+            e.printStackTrace();
+        }
+        shard.mergeVectorsInto(densityMatrices);
+        shard.clear();
+    }
+
+    private void deleteSpillRuns() {
+        for (SpillRun run : spillRuns) {
+            run.delete();
+        }
+        spillRuns.clear();
+        if (spillDirectory != null && !spillDirectory.delete()) {
+            System.out.println(String.format("Unable to delete spill directory %s.", spillDirectory.getPath()));
+        }
+        spillDirectory = null;
+    }
+
+    private void updateMatrix(DMatrixShard shard, int targetId, float[] matrix, Context context) {
+        int[] ids = context.ids;
+        int[] counts = context.counts;
+        for (int i = 0; i < context.size; i++) {
+            int x = ids[i];
+            for (int j = i; j < context.size; j++) {
+                int y = ids[j];
+                if (y < cutoff) {
+                    matrix[DMatrixShard.packedIndex(x, y, cutoff)] += counts[i] * counts[j];
                 } else if (softCutoff) {
-                    Pair<Integer, Integer> coords = new ImmutablePair<>(x, y);
-                    Map<Pair<Integer, Integer>, Float> targetMatrix = densityMatricesSparse.get(target);
-                    synchronized (targetMatrix) {
-                        targetMatrix.put(coords,
-                                targetMatrix.getOrDefault(coords, 0.0f) + (float) outer.getRight() * inner.getRight());
-                    }
+                    shard.addSparse(targetId, new ImmutablePair<>(x, y), (float) counts[i] * counts[j]);
+                } else {
+                    break;
                 }
             }
-            index++;
         }
     }
 
-    void updateVector(String target, Map<String, Integer> context) {
+    void updateVector(DMatrixShard shard, int target, Context context) {
         // Only obtain vectors within cutoff.
         if (getVectors) {
-            for (Map.Entry<String, Integer> entry : context.entrySet()) {
-                int index = wordMap.get(entry.getKey());
-                if (index < cutoff) {
-                    vectors[index].updateEntry(target, entry.getValue());
+            float[] vector = shard.getOrCreateVector(targetSlots[target]);
+            if (shard.isShared()) {
+                synchronized (vector) {
+                    updateVector(vector, context);
                 }
+            } else {
+                updateVector(vector, context);
             }
         }
     }
 
+    private void updateVector(float[] vector, Context context) {
+        for (int i = 0; i < context.size && context.ids[i] < cutoff; i++) {
+            vector[context.ids[i]] += context.counts[i];
+        }
+    }
+
     public float[][] getMatrix(String target) {
         float[][] output;
         if (softCutoff) {
@@ -166,23 +584,38 @@ public abstract class CountDMatrixGenerator {
         } else {
             output = new float[cutoff][cutoff];
         }
+        Integer targetId = targetIds.get(target);
+        if (targetId != null && !spillRuns.isEmpty()) {
+            try {
+                SpillRun.merge(spillRuns, spillFanIn, (runTarget, x, y, value) -> {
+                    if (runTarget == targetId) {
+                        output[rank(x)][rank(y)] = output[rank(y)][rank(x)] = value;
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("IOException thrown reading spill runs.");
+                e.printStackTrace();
+            }
+            return output;
+        }
+        if (targetId == null || densityMatrices.getMatrix(targetId) == null) {
+            return output;
+        }
+        float[] matrix = densityMatrices.getMatrix(targetId);
+        int index = 0;
         for (int i = 0; i < cutoff; i++) {
             for (int j = i; j < cutoff; j++) {
-                Float val = densityMatrices[i][j - i].getValue(target);
-                if (val == null) {
-                    output[i][j] = 0.0f;
-                    output[j][i] = 0.0f;
-                } else {
-                    output[i][j] = val;
-                    output[j][i] = val;
+                if (matrix[index] != 0.0f) {
+                    output[rank(i)][rank(j)] = output[rank(j)][rank(i)] = matrix[index];
                 }
+                index++;
             }
         }
-        if (softCutoff) {
-            Map<Pair<Integer, Integer>, Float> targetMatrix = densityMatricesSparse.get(target);
+        Map<Pair<Integer, Integer>, Float> targetMatrix = densityMatrices.getSparseMatrix(targetId);
+        if (softCutoff && targetMatrix != null) {
             for (Map.Entry<Pair<Integer, Integer>, Float> entry : targetMatrix.entrySet()) {
-                int x = entry.getKey().getLeft();
-                int y = entry.getKey().getRight();
+                int x = rank(entry.getKey().getLeft());
+                int y = rank(entry.getKey().getRight());
                 output[x][y] = entry.getValue();
                 output[y][x] = entry.getValue();
             }
@@ -191,45 +624,68 @@ public abstract class CountDMatrixGenerator {
     }
 
     public float[] getVector(String target) {
+        Integer targetId = targetIds.get(target);
+        if (targetId == null || densityMatrices.getVector(targetId) == null) {
+            return new float[cutoff];
+        }
+        return rankVector(densityMatrices.getVector(targetId));
+    }
+
+    private float[] rankVector(float[] vector) {
+        if (finalRanks == null) {
+            return Arrays.copyOf(vector, cutoff);
+        }
         float[] output = new float[cutoff];
-        for (int i = 0; i < cutoff; i++) {
-            output[i] = vectors[i].getValue(target);
+        // With a hard cutoff, the sampled vocabulary may hold fewer words than the cutoff.
+        for (int i = 0; i < Math.min(cutoff, finalRanks.length); i++) {
+            int rank = rank(i);
+            if (rank >= 0 && rank < cutoff) {
+                output[rank] = vector[i];
+            }
         }
         return output;
     }
 
+    /**
+     * Writes the matrices of all targets on numThreads threads. Each task writes one target's matrix end to
+     * end, so at most numThreads matrix files are open at once.
+     */
     public void writeMatrices(String outputPath) {
         long startTime = System.nanoTime();
-        Map<String, SparseDMatrixWriter> outputWriters = new HashMap<>();
-        for (int x = 0; x < cutoff; x++) {
-            for (int y = x; y < cutoff; y++) {
-                for (Map.Entry<String, Float> entry : densityMatrices[x][y - x].getAllEntries()) {
-                    SparseDMatrixWriter writer = outputWriters.get(entry.getKey());
-                    if (writer == null) {
-                        writer = new SparseDMatrixWriter(entry.getKey(), outputPath);
-                        outputWriters.put(entry.getKey(), writer);
-                    }
-                    writer.writeEntry(x, y, entry.getValue());
+        MatrixStoreWriter store = consolidatedOutput ? new MatrixStoreWriter(outputPath) : null;
+        AtomicLong serializationTime = new AtomicLong();
+        AtomicLong ioTime = new AtomicLong();
+        if (!spillRuns.isEmpty()) {
+            long mergeIoTime = writeSpilledMatrices(outputPath, store);
+            ioTime.addAndGet(mergeIoTime);
+            serializationTime.addAndGet(System.nanoTime() - startTime - mergeIoTime);
+            deleteSpillRuns();
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(numThreads, 1));
+            List<Future<?>> writes = new ArrayList<>();
+            for (int targetId = 0; targetId < targetWords.length; targetId++) {
+                final int target = targetId;
+                writes.add(pool.submit(() -> {
+                    long taskStartTime = System.nanoTime();
+                    long taskIoTime = writeMatrix(target, outputPath, store);
+                    ioTime.addAndGet(taskIoTime);
+                    serializationTime.addAndGet(System.nanoTime() - taskStartTime - taskIoTime);
+                }));
+            }
+            for (Future<?> write : writes) {
+                try {
+                    write.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
                 }
             }
+            pool.shutdown();
         }
-        for (String target : outputWriters.keySet()) {
-            Map<Pair<Integer, Integer>, Float> matrix = densityMatricesSparse.get(target);
-            if (matrix.size() == 0) {
-                continue;
-            }
-            SparseDMatrixWriter writer = outputWriters.get(target);
-            if (writer == null) {
-                writer = new SparseDMatrixWriter(target, outputPath);
-                outputWriters.put(target, writer);
-            }
-            for (Map.Entry<Pair<Integer, Integer>, Float> entry : matrix.entrySet()) {
-                Pair<Integer, Integer> coord = entry.getKey();
-                writer.writeEntry(coord.getLeft(), coord.getRight(), entry.getValue());
-            }
+        if (store != null) {
+            long closeStartTime = System.nanoTime();
+            store.close();
+            ioTime.addAndGet(System.nanoTime() - closeStartTime);
         }
-        // Close matrix writers.
-        outputWriters.values().forEach(SparseDMatrixWriter::close);
         // Write matrix parameters.
         try {
             PrintWriter writer = new PrintWriter(Paths.get(outputPath, "parameters.txt").toString());
@@ -245,8 +701,83 @@ public abstract class CountDMatrixGenerator {
             System.out.println(String.format("File %s could not be created", outputPath));
             e.printStackTrace();
         }
-        System.out.println(String.format("Matrix write took %d seconds",
-                (System.nanoTime() - startTime) / 1000000000));
+        System.out.println(String.format("Matrix write took %d seconds", (System.nanoTime() - startTime) / 1000000000));
+        System.out.println(String.format("Matrix serialization took %d ms and I/O took %d ms, summed over %d threads",
+                serializationTime.get() / 1000000, ioTime.get() / 1000000, Math.max(numThreads, 1)));
+    }
+
+    /**
+     * Writes the matrices of all targets from a sequential merge of the spill runs, one target after another,
+     * returning the time spent on I/O in nanoseconds. The merge holds one record per run at a time.
+     */
+    private long writeSpilledMatrices(String outputPath, MatrixStoreWriter store) {
+        SparseDMatrixWriter[] writer = new SparseDMatrixWriter[1];
+        int[] writerTarget = new int[]{-1};
+        long[] ioTime = new long[1];
+        try {
+            SpillRun.merge(spillRuns, spillFanIn, (target, x, y, value) -> {
+                if (target != writerTarget[0]) {
+                    if (writer[0] != null) {
+                        writer[0].close();
+                        ioTime[0] += writer[0].getIoTime();
+                    }
+                    writer[0] = store != null ? new SparseDMatrixWriter(targetWords[target], store)
+                            : new SparseDMatrixWriter(targetWords[target], outputPath);
+                    writerTarget[0] = target;
+                }
+                writeEntry(writer[0], x, y, value);
+            });
+        } catch (IOException e) {
+            System.out.println("IOException thrown merging spill runs. Matrices potentially incomplete.");
+            e.printStackTrace();
+        }
+        if (writer[0] != null) {
+            writer[0].close();
+            ioTime[0] += writer[0].getIoTime();
+        }
+        return ioTime[0];
+    }
+
+    /**
+     * Writes the matrix of one target, returning the time spent on I/O in nanoseconds.
+     */
+    private long writeMatrix(int targetId, String outputPath, MatrixStoreWriter store) {
+        float[] matrix = densityMatrices.getMatrix(targetId);
+        if (matrix == null) {
+            return 0;
+        }
+        SparseDMatrixWriter writer = store != null
+                ? new SparseDMatrixWriter(targetWords[targetId], store)
+                : new SparseDMatrixWriter(targetWords[targetId], outputPath);
+        int index = 0;
+        for (int x = 0; x < cutoff; x++) {
+            if (finalRanks == null) {
+                writer.writeRow(x, x, matrix, index, cutoff - x);
+                index += cutoff - x;
+                continue;
+            }
+            for (int y = x; y < cutoff; y++) {
+                if (matrix[index] != 0.0f) {
+                    writeEntry(writer, x, y, matrix[index]);
+                }
+                index++;
+            }
+        }
+        Map<Pair<Integer, Integer>, Float> sparseMatrix = densityMatrices.getSparseMatrix(targetId);
+        if (sparseMatrix != null) {
+            for (Map.Entry<Pair<Integer, Integer>, Float> entry : sparseMatrix.entrySet()) {
+                Pair<Integer, Integer> coord = entry.getKey();
+                writeEntry(writer, coord.getLeft(), coord.getRight(), entry.getValue());
+            }
+        }
+        writer.close();
+        return writer.getIoTime();
+    }
+
+    private void writeEntry(SparseDMatrixWriter writer, int x, int y, float value) {
+        int rankX = rank(x);
+        int rankY = rank(y);
+        writer.writeEntry(Math.min(rankX, rankY), Math.max(rankX, rankY), value);
     }
 
     private void writeVectors(String outputPath) {
@@ -254,31 +785,24 @@ public abstract class CountDMatrixGenerator {
             System.out.println("Unable to write vectors, no vectors constructed.");
             return;
         }
-        Map<String, Float[]> output = new HashMap<>();
-        for (int i = 0; i < cutoff; i++) {
-            for (Map.Entry<String, Float> entry : vectors[i].getAllEntries()) {
-                Float[] vector = output.get(entry.getKey());
-                if (vector == null) {
-                    vector = new Float[cutoff];
-                    output.put(entry.getKey(), vector);
-                }
-                vector[i] = entry.getValue();
-            }
-        }
         try {
             BufferedWriter writer = new BufferedWriter(
                     new FileWriter(Paths.get(outputPath, "vectors.txt").toString(), true));
-            for (Map.Entry<String, Float[]> entry : output.entrySet()) {
+            for (int targetId = 0; targetId < targetWords.length; targetId++) {
+                if (densityMatrices.getVector(targetId) == null) {
+                    continue;
+                }
+                float[] vector = rankVector(densityMatrices.getVector(targetId));
                 StringBuilder stringBuilder = new StringBuilder();
-                for (Float value : entry.getValue()) {
+                for (float value : vector) {
                     stringBuilder.append(" ");
-                    if (value == null) {
+                    if (value == 0.0f) {
                         stringBuilder.append(0);
                     } else {
                         stringBuilder.append(value);
                     }
                 }
-                writer.write(String.format("%s%s", entry.getKey(), stringBuilder.toString()));
+                writer.write(String.format("%s%s", targetWords[targetId], stringBuilder.toString()));
                 writer.newLine();
             }
             writer.flush();
@@ -317,26 +841,4 @@ public abstract class CountDMatrixGenerator {
         }
     }
 
-    private class DataCell {
-        Map<String, Float> entries;
-
-        DataCell() {
-            this.entries = new HashMap<>();
-        }
-
-        Set<Map.Entry<String, Float>> getAllEntries() {
-            return entries.entrySet();
-        }
-
-        Float getValue(String target) {
-            return entries.get(target);
-        }
-
-        void updateEntry(String target, float diff) {
-            synchronized (this) {
-                entries.put(target, entries.getOrDefault(target, 0.0f) + diff);
-            }
-        }
-    }
-
 }
@@ -0,0 +1,249 @@
+package dmatrix;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Target-major accumulator for count density matrices.
+ * <p>
+ * Each target has a packed upper triangular matrix over the first cutoff contexts, a sparse map for
+ * soft-cutoff entries beyond it, and optionally a context vector. A shared shard locks each target on
+ * update, while a local shard is owned by a single worker thread and is never locked.
+ */
+class DMatrixShard {
+
+    // Rough heap cost of one boxed sparse entry, used for memory budgeting.
+    private static final long SPARSE_ENTRY_BYTES = 80;
+    // Rough number of distinct soft-cutoff entries a target gains per occurrence, used for planning only.
+    private static final long SPARSE_ENTRIES_PER_OCCURRENCE = 20;
+
+    private final int cutoff;
+    private final boolean shared;
+    private final float[][] matrices;
+    private final List<Map<Pair<Integer, Integer>, Float>> sparseMatrices;
+    private final float[][] vectors;
+    // Only maintained for local shards, which are the only ones checked against a memory budget.
+    private long estimatedBytes;
+
+    DMatrixShard(int numTargets, int cutoff, boolean getVectors, boolean shared) {
+        if ((long) cutoff * (cutoff + 1) / 2 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Cutoff %d is too large for packed storage.", cutoff));
+        }
+        this.cutoff = cutoff;
+        this.shared = shared;
+        this.matrices = new float[numTargets][];
+        this.sparseMatrices = new ArrayList<>(numTargets);
+        for (int i = 0; i < numTargets; i++) {
+            sparseMatrices.add(null);
+        }
+        this.vectors = getVectors ? new float[numTargets][] : null;
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    int numTargets() {
+        return matrices.length;
+    }
+
+    /**
+     * Index of entry (x, y), x <= y, in a packed upper triangular matrix of the given dimension.
+     */
+    static int packedIndex(int x, int y, int dim) {
+        return (int) ((long) x * dim - (long) x * (x - 1) / 2 + (y - x));
+    }
+
+    /**
+     * Predicts the heap a target's data takes after a run, from its number of occurrences in the corpus.
+     *
+     * @param dim size of the full context vocabulary, bounding the number of soft-cutoff entries
+     */
+    static long estimateTargetBytes(long occurrences, int cutoff, int dim, boolean softCutoff, boolean getVectors) {
+        if (occurrences <= 0) {
+            return 0;
+        }
+        long packed = (long) cutoff * (cutoff + 1) / 2;
+        long bytes = 4L * packed + (getVectors ? 4L * cutoff : 0);
+        if (softCutoff) {
+            long maxSparse = Math.max((long) dim * (dim + 1) / 2 - packed, 0);
+            bytes += SPARSE_ENTRY_BYTES * Math.min(occurrences * SPARSE_ENTRIES_PER_OCCURRENCE, maxSparse);
+        }
+        return bytes;
+    }
+
+    float[] getMatrix(int targetId) {
+        return matrices[targetId];
+    }
+
+    Map<Pair<Integer, Integer>, Float> getSparseMatrix(int targetId) {
+        return sparseMatrices.get(targetId);
+    }
+
+    float[] getVector(int targetId) {
+        return vectors == null ? null : vectors[targetId];
+    }
+
+    float[] getOrCreateMatrix(int targetId) {
+        float[] matrix = matrices[targetId];
+        if (matrix == null) {
+            if (shared) {
+                synchronized (matrices) {
+                    matrix = matrices[targetId];
+                    if (matrix == null) {
+                        matrix = new float[cutoff * (cutoff + 1) / 2];
+                        matrices[targetId] = matrix;
+                    }
+                }
+            } else {
+                matrix = new float[cutoff * (cutoff + 1) / 2];
+                matrices[targetId] = matrix;
+                estimatedBytes += 4L * matrix.length;
+            }
+        }
+        return matrix;
+    }
+
+    float[] getOrCreateVector(int targetId) {
+        float[] vector = vectors[targetId];
+        if (vector == null) {
+            if (shared) {
+                synchronized (vectors) {
+                    vector = vectors[targetId];
+                    if (vector == null) {
+                        vector = new float[cutoff];
+                        vectors[targetId] = vector;
+                    }
+                }
+            } else {
+                vector = new float[cutoff];
+                vectors[targetId] = vector;
+                estimatedBytes += 4L * vector.length;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * Adds value to a soft-cutoff entry. Callers of a shared shard must hold the target's matrix lock.
+     */
+    void addSparse(int targetId, Pair<Integer, Integer> coords, float value) {
+        Map<Pair<Integer, Integer>, Float> sparseMatrix = sparseMatrices.get(targetId);
+        if (sparseMatrix == null) {
+            sparseMatrix = new HashMap<>();
+            sparseMatrices.set(targetId, sparseMatrix);
+        }
+        Float prev = sparseMatrix.put(coords, value);
+        if (prev == null) {
+            if (!shared) {
+                estimatedBytes += SPARSE_ENTRY_BYTES;
+            }
+        } else {
+            sparseMatrix.put(coords, prev + value);
+        }
+    }
+
+    /**
+     * Estimated heap used by the accumulated data of a local shard, in bytes.
+     */
+    long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Adds all accumulated data into the given shard and clears this one. Matrices missing from a local
+     * destination are handed over without copying.
+     */
+    void mergeInto(DMatrixShard other) {
+        for (int targetId = 0; targetId < matrices.length; targetId++) {
+            float[] matrix = matrices[targetId];
+            if (matrix != null) {
+                Map<Pair<Integer, Integer>, Float> sparseMatrix = sparseMatrices.get(targetId);
+                if (!other.shared && other.matrices[targetId] == null) {
+                    other.matrices[targetId] = matrix;
+                    other.estimatedBytes += 4L * matrix.length;
+                    other.addAllSparse(targetId, sparseMatrix);
+                } else {
+                    float[] dest = other.getOrCreateMatrix(targetId);
+                    if (other.shared) {
+                        synchronized (dest) {
+                            other.addAll(targetId, dest, matrix, sparseMatrix);
+                        }
+                    } else {
+                        other.addAll(targetId, dest, matrix, sparseMatrix);
+                    }
+                }
+            }
+            if (vectors != null && vectors[targetId] != null) {
+                float[] dest = other.getOrCreateVector(targetId);
+                if (other.shared) {
+                    synchronized (dest) {
+                        addVector(dest, vectors[targetId]);
+                    }
+                } else {
+                    addVector(dest, vectors[targetId]);
+                }
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Adds the vectors of this shard into the given shard, leaving the matrices in place.
+     */
+    void mergeVectorsInto(DMatrixShard other) {
+        if (vectors == null) {
+            return;
+        }
+        for (int targetId = 0; targetId < vectors.length; targetId++) {
+            if (vectors[targetId] != null) {
+                float[] dest = other.getOrCreateVector(targetId);
+                if (other.shared) {
+                    synchronized (dest) {
+                        addVector(dest, vectors[targetId]);
+                    }
+                } else {
+                    addVector(dest, vectors[targetId]);
+                }
+            }
+        }
+    }
+
+    private void addAll(int targetId, float[] dest, float[] matrix, Map<Pair<Integer, Integer>, Float> sparseMatrix) {
+        for (int i = 0; i < matrix.length; i++) {
+            dest[i] += matrix[i];
+        }
+        addAllSparse(targetId, sparseMatrix);
+    }
+
+    private void addAllSparse(int targetId, Map<Pair<Integer, Integer>, Float> sparseMatrix) {
+        if (sparseMatrix == null) {
+            return;
+        }
+        for (Map.Entry<Pair<Integer, Integer>, Float> entry : sparseMatrix.entrySet()) {
+            addSparse(targetId, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void addVector(float[] dest, float[] vector) {
+        for (int i = 0; i < vector.length; i++) {
+            dest[i] += vector[i];
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < matrices.length; i++) {
+            matrices[i] = null;
+            sparseMatrices.set(i, null);
+            if (vectors != null) {
+                vectors[i] = null;
+            }
+        }
+        estimatedBytes = 0;
+    }
+
+}
@@ -5,9 +5,6 @@ import dmatrix.io.*;
 import java.io.*;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Density matrix generator using sparse updates.
@@ -32,6 +29,18 @@ public class DependencyDMatrixGenerator extends CountDMatrixGenerator {
         }
         DependencyDMatrixGenerator dmg
                 = new DependencyDMatrixGenerator(corpusRoot, targets, dim, numThreads, numRuns, getVectors);
+        if (args.length > 7) {
+            dmg.setShardMemoryBudget(Long.parseLong(args[7]) * 1024 * 1024);
+        }
+        if (args.length > 9) {
+            dmg.setPipeline(Integer.parseInt(args[8]), Integer.parseInt(args[9]));
+        }
+        if (args.length > 10) {
+            dmg.setConsolidatedOutput(Integer.parseInt(args[10]) == 1);
+        }
+        if (args.length > 11) {
+            dmg.setSpillMemoryBudget(Long.parseLong(args[11]) * 1024 * 1024);
+        }
         dmg.generateAndWriteMatrices(outputPath);
     }
 
@@ -51,6 +60,7 @@ public class DependencyDMatrixGenerator extends CountDMatrixGenerator {
         System.out.println("Generating wordmap...");
         long startTime = System.nanoTime();
         wordMap = dependencyWordmapGenerator.generate();
+        setTargetFrequencies(dependencyWordmapGenerator::getCount);
         System.out.println(String.format("Wordmap generation took %d seconds",
                 (System.nanoTime() - startTime) / 1000000000));
         if (dim <= 0) {
@@ -66,64 +76,128 @@ public class DependencyDMatrixGenerator extends CountDMatrixGenerator {
     void generateMatricesRun() {
         System.out.println("Generating matrices...");
         long startTime = System.nanoTime();
-        List<List<String>> filePathPartitions = IOUtils.getFilePathPartitions(corpusRoot, numThreads);
-        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
-        for (List<String> filePaths : filePathPartitions) {
-            pool.submit(new DMatrixSentenceWorker(filePaths, this));
+        SentenceStreamFactory sentenceStreamFactory = new SentenceStreamFactory(targets);
+        List<DMatrixSentenceWorker> workers = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            workers.add(new DMatrixSentenceWorker(sentenceStreamFactory));
         }
-        pool.shutdown();
-        try {
-            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            //TODO: see if graceful exit is possible here
+        FileScheduler scheduler = new FileScheduler(corpusRoot);
+        if (numParsers <= 0) {
+            scheduler.run(workers);
+        } else {
+            new Pipeline<Sentence, int[]>(scheduler, Math.max(numReaders, 1), numParsers).run(split -> {
+                SentenceStream sentenceStream = sentenceStreamFactory.getStream(split.getPath());
+                return new Pipeline.Source<Sentence>() {
+                    public Sentence read() {
+                        // The stream reuses its sentence, which is parsed on another thread.
+                        Sentence sentence = sentenceStream.getSentence();
+                        return sentence == null ? null : sentence.copy();
+                    }
+
+                    public void close() {
+                        sentenceStream.close();
+                    }
+                };
+            }, () -> {
+                DependencyParser parser = new DependencyParser();
+                return sentence -> {
+                    int numPairs = parser.parse(sentence);
+                    return Arrays.copyOf(parser.pairs, 3 * numPairs);
+                };
+            }, workers);
         }
+        sentenceStreamFactory.printSkipRate();
+        mergeShards();
         System.out.println(String.format("Matrix generation took %d seconds",
                 (System.nanoTime() - startTime) / 1000000000));
     }
 
-    private class DMatrixSentenceWorker implements Runnable {
-        private List<String> filePaths;
-        private SentenceStreamFactory sentenceStreamFactory;
+    /**
+     * Collects (head position, target id, context id) triples over both directions of each dependency
+     * whose head is a target, into a reused buffer.
+     */
+    private class DependencyParser {
+        private int[] pairs = new int[48];
 
-        DMatrixSentenceWorker(List<String> filePaths, DependencyDMatrixGenerator dMatrixGenerator) {
-            this.filePaths = filePaths;
-            this.sentenceStreamFactory = new SentenceStreamFactory(dMatrixGenerator.targets);
+        /**
+         * @return the number of triples in pairs
+         */
+        int parse(Sentence sentence) {
+            int[] dependencies = sentence.getDependencies();
+            int numDependencies = sentence.numDependencies();
+            if (pairs.length < 6 * numDependencies) {
+                pairs = new int[6 * numDependencies];
+            }
+            int numPairs = 0;
+            for (int k = 0; k < numDependencies; k++) {
+                for (int i = 0; i < 2; i++) {
+                    int position = dependencies[2 * k + i];
+                    int word1 = vocabulary.getId(sentence.getWord(position));
+                    if (isTarget(word1)) {
+                        pairs[3 * numPairs] = position;
+                        pairs[3 * numPairs + 1] = word1;
+                        pairs[3 * numPairs + 2] = vocabulary.getId(sentence.getWord(dependencies[2 * k + 1 - i]));
+                        numPairs++;
+                    }
+                }
+            }
+            return numPairs;
         }
+    }
 
-        public void run() {
-            filePaths.forEach(this::processFile);
+    private class DMatrixSentenceWorker implements FileScheduler.Worker, Pipeline.Consumer<int[]> {
+        private SentenceStreamFactory sentenceStreamFactory;
+        private DMatrixShard shard;
+        private Context context;
+        private DependencyParser parser;
+
+        DMatrixSentenceWorker(SentenceStreamFactory sentenceStreamFactory) {
+            this.sentenceStreamFactory = sentenceStreamFactory;
+            this.shard = createShard();
+            this.context = new Context();
+            this.parser = new DependencyParser();
         }
 
-        private void processFile(String path) {
-            SentenceStream sentenceStream = sentenceStreamFactory.getStream(path);
+        public void processFile(FileSplit split) {
+            SentenceStream sentenceStream = sentenceStreamFactory.getStream(split.getPath());
             Sentence sentence;
             while ((sentence = sentenceStream.getSentence()) != null) {
-                Map<Integer, Map<String, Integer>> relationCounts = new HashMap<>(sentence.size());
-                for (Integer[] dep : sentence.getDependencies()) {
-                    for (int i = 0; i < 2; i++) {
-                        String word1 = sentence.getWord(dep[i]);
-                        String word2 = sentence.getWord(dep[(i + 1) % 2]);
-                        if (targets.contains(word1)) {
-                            Map<String, Integer> counts = relationCounts.get(dep[i]);
-                            if (counts == null) {
-                                counts = new HashMap<>();
-                                relationCounts.put(dep[i], counts);
-                            }
-                            Integer prev = counts.get(word2);
-                            if (prev == null) {
-                                counts.put(word2, 1);
-                            } else {
-                                counts.put(word2, prev + 1);
-                            }
+                int numPairs = parser.parse(sentence);
+                processPairs(parser.pairs, numPairs);
+            }
+            sentenceStream.close();
+        }
+
+        public void accept(int[] pairs) {
+            processPairs(pairs, pairs.length / 3);
+        }
+
+        /**
+         * Accumulates the contexts of each target position, marking processed triples with head -1.
+         */
+        private void processPairs(int[] pairs, int numPairs) {
+            for (int k = 0; k < numPairs; k++) {
+                int head = pairs[3 * k];
+                if (head < 0) {
+                    continue;
+                }
+                int target = pairs[3 * k + 1];
+                context.clear();
+                for (int l = k; l < numPairs; l++) {
+                    if (pairs[3 * l] == head) {
+                        if (vocabulary.isContext(pairs[3 * l + 2])) {
+                            context.add(pairs[3 * l + 2]);
                         }
+                        pairs[3 * l] = -1;
                     }
                 }
-                for (Map.Entry<Integer, Map<String, Integer>> entry : relationCounts.entrySet()) {
-                    updateMatrix(sentence.getWord(entry.getKey()), entry.getValue());
-                    updateVector(sentence.getWord(entry.getKey()), entry.getValue());
-                }
+                context.compact();
+                updateMatrix(shard, target, context);
+                updateVector(shard, target, context);
             }
-            sentenceStream.close();
+        }
+
+        public void finish() {
         }
     }
 
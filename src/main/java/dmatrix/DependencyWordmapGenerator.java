@@ -3,10 +3,6 @@ package dmatrix;
 import dmatrix.io.*;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * Maps context words to specific values.
@@ -18,6 +14,7 @@ public class DependencyWordmapGenerator {
     private int numThreads;
     private Set<String> targets;
     private int cutoff;
+    private WordCounter counts;
 
     public DependencyWordmapGenerator(String corpusRoot, Set<String> targets, int numThreads) {
         this.corpusRoot = corpusRoot;
@@ -27,41 +24,27 @@ public class DependencyWordmapGenerator {
     }
 
     public Map<String, Integer> generate() {
-        Map<String, Integer> counts = new HashMap<>();
-        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
-        List<List<String>> filePathPartitions = IOUtils.getFilePathPartitions(corpusRoot, numThreads);
-        for (List<String> filePathPartition : filePathPartitions) {
-            pool.submit(new CountWorker(filePathPartition, counts));
-        }
-        pool.shutdown();
-        try {
-            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            System.out.println(e);
+        List<WordCounter> counters = new ArrayList<>();
+        List<CountWorker> workers = new ArrayList<>();
+        SentenceStreamFactory sentenceStreamFactory = new SentenceStreamFactory(targets);
+        for (int i = 0; i < numThreads; i++) {
+            WordCounter counter = new WordCounter();
+            counters.add(counter);
+            workers.add(new CountWorker(counter, sentenceStreamFactory));
         }
+        new FileScheduler(corpusRoot).run(workers);
+        sentenceStreamFactory.printSkipRate();
+        counts = WordCounter.merge(counters, numThreads);
         Map<String, Integer> output = new HashMap<>(counts.size());
-        ListIterator<Map.Entry<String, Integer>> li = counts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue()).collect(Collectors.toList()).listIterator(counts.size());
         int index = 0;
-        int total = counts.values().stream().mapToInt(Integer::intValue).sum();
-        int partialCount = 0;
-        /*
-        boolean ninety = true;
-        boolean ninetyfive = true;*/
-        while (li.hasPrevious()) {
-            Map.Entry<String, Integer> entry = li.previous();
-            partialCount += entry.getValue();
-            if (cutoff == 0 && (float) partialCount / total > 0.85) {
+        long total = counts.total();
+        long partialCount = 0;
+        for (String word : counts.sorted()) {
+            partialCount += counts.getCount(word);
+            if (cutoff == 0 && (double) partialCount / total > 0.85) {
                 cutoff = index + 1;
-            }/*
-            if (ninety && (float) partialCount / total > 0.90) {
-                System.out.println(String.format("90 percent at %d", index+1));
-                ninety = false;
-            } else if (ninetyfive  && (float) partialCount / total > 0.95) {
-                System.out.println(String.format("95 percent at %d", index+1));
-                ninetyfive = false;
-            }*/
-            output.put(entry.getKey(), index);
+            }
+            output.put(word, index);
             index++;
         }
         return output;
@@ -71,49 +54,34 @@ public class DependencyWordmapGenerator {
         return cutoff;
     }
 
-    private class CountWorker implements Runnable {
-        private List<String> paths;
-        private final Map<String, Integer> totalCounts;
+    /**
+     * Count of a word from the last call to generate.
+     */
+    public long getCount(String word) {
+        return counts == null ? 0 : counts.getCount(word);
+    }
+
+    private class CountWorker implements FileScheduler.Worker {
+        private final WordCounter counts;
         private SentenceStreamFactory sentenceStreamFactory;
 
-        CountWorker(List<String> paths, Map<String, Integer> totalCounts) {
-            this.paths = paths;
-            this.totalCounts = totalCounts;
-            sentenceStreamFactory = new SentenceStreamFactory(targets);
+        CountWorker(WordCounter counts, SentenceStreamFactory sentenceStreamFactory) {
+            this.counts = counts;
+            this.sentenceStreamFactory = sentenceStreamFactory;
         }
 
-        public void run() {
-            for (String path : this.paths) {
-                Map<String, Integer> counts = new HashMap<>();
-                SentenceStream sentenceStream = sentenceStreamFactory.getStream(path);
-                Sentence sentence;
-                while ((sentence = sentenceStream.getSentence()) != null) {
-                    for (String token : sentence.getWords()) {
-                        Integer prev = counts.get(token);
-                        if (prev == null) {
-                            counts.put(token, 1);
-                        } else {
-                            counts.put(token, prev + 1);
-                        }
-                    }
+        public void processFile(FileSplit split) {
+            SentenceStream sentenceStream = sentenceStreamFactory.getStream(split.getPath());
+            Sentence sentence;
+            while ((sentence = sentenceStream.getSentence()) != null) {
+                for (int i = 0; i < sentence.size(); i++) {
+                    counts.add(sentence.getWord(sentence.getPosition(i)));
                 }
-                sentenceStream.close();
-                this.updateCounts(counts);
             }
+            sentenceStream.close();
         }
 
-        private void updateCounts(Map<String, Integer> diff) {
-            synchronized (totalCounts) {
-                for (Map.Entry<String, Integer> entry : diff.entrySet()) {
-                    String target = entry.getKey();
-                    Integer prev = totalCounts.get(target);
-                    if (prev == null) {
-                        totalCounts.put(target, entry.getValue());
-                    } else {
-                        totalCounts.put(target, prev + entry.getValue());
-                    }
-                }
-            }
+        public void finish() {
         }
     }
 }
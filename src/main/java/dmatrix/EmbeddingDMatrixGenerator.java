@@ -6,9 +6,6 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 public class EmbeddingDMatrixGenerator {
 
@@ -19,9 +16,20 @@ public class EmbeddingDMatrixGenerator {
     private boolean contextNorm;
     private Set<String> targets;
     private TokenizedFileReaderFactory tokenizedFileReaderFactory;
+    private int numReaders;
+    private int numParsers;
+    private boolean packedOutput;
+    private int contextBlockSize = 1;
+    private long contextBufferBytes = 64L << 20;
+    private int sketchRank;
 
     private Map<String, float[]> wordMap;
-    private Map<String, float[][]> densityMatrices;
+    // Packed upper triangular matrices, row i holding the dim - i values from the diagonal onwards.
+    private Map<String, float[]> densityMatrices;
+    // Low rank sketches used in place of densityMatrices when sketchRank is set.
+    private Map<String, FrequentDirections> sketches;
+    // Number of contexts added to each target's matrix. Each count is also the lock of its target's matrix.
+    private Map<String, int[]> updateCounts;
 
     public static void main(String[] args) {
         String corpusRoot = args[0];
@@ -33,6 +41,18 @@ public class EmbeddingDMatrixGenerator {
         String outputPath = args[6];
         EmbeddingDMatrixGenerator dmg = new EmbeddingDMatrixGenerator(corpusRoot, targetsPath, numContexts,
                 vectorsPath, numThreads, contextNorm);
+        if (args.length > 8) {
+            dmg.setPipeline(Integer.parseInt(args[7]), Integer.parseInt(args[8]));
+        }
+        if (args.length > 9) {
+            dmg.setPackedOutput(Integer.parseInt(args[9]) == 1);
+        }
+        if (args.length > 10) {
+            dmg.setContextBlockSize(Integer.parseInt(args[10]));
+        }
+        if (args.length > 11) {
+            dmg.setSketchRank(Integer.parseInt(args[11]));
+        }
         dmg.generateMatrices();
         dmg.writeMatrices(outputPath);
     }
@@ -49,16 +69,70 @@ public class EmbeddingDMatrixGenerator {
         this.wordMap = wordmapGenerator.generate(vectorsPath);
         String tmpTarget = wordMap.keySet().iterator().next();
         this.dim = wordMap.get(tmpTarget).length;
-        this.densityMatrices = new HashMap<>();
+        this.updateCounts = new HashMap<>();
         for (String target : this.targets) {
-            float[][] initialMatrix = new float[this.dim][];
-            for (int i = 0; i < this.dim; i++) {
-                initialMatrix[i] = new float[this.dim - i];
+            this.updateCounts.put(target, new int[1]);
+        }
+    }
+
+    void allocateMatrices() {
+        if (sketchRank > 0) {
+            sketches = new HashMap<>();
+            for (String target : targets) {
+                sketches.put(target, new FrequentDirections(sketchRank, dim));
             }
-            this.densityMatrices.put(target, initialMatrix);
+            return;
+        }
+        densityMatrices = new HashMap<>();
+        for (String target : targets) {
+            densityMatrices.put(target, new float[dim * (dim + 1) / 2]);
         }
     }
 
+    /**
+     * Enables the staged pipeline, with reader and parser threads feeding tokenized lines to the workers.
+     *
+     * @param numReaders number of threads reading and decompressing files
+     * @param numParsers number of threads tokenizing lines, or 0 for workers reading their own files
+     */
+    public void setPipeline(int numReaders, int numParsers) {
+        this.numReaders = numReaders;
+        this.numParsers = numParsers;
+    }
+
+    /**
+     * Writes each matrix as a packed upper triangle behind a header holding the dimension, instead of
+     * headerless rows. parameters.txt declares the format as "packed" rather than "dense".
+     */
+    public void setPackedOutput(boolean packedOutput) {
+        this.packedOutput = packedOutput;
+    }
+
+    /**
+     * Sets the number of contexts each worker buffers per target before adding them to the target's matrix
+     * as one rank-k update. The default block size of 1 adds each context as it is read. Blocks are not used
+     * in sketch mode, where each context is added to the sketch as it is read.
+     */
+    public void setContextBlockSize(int contextBlockSize) {
+        this.contextBlockSize = contextBlockSize;
+    }
+
+    /**
+     * Bounds the contexts each worker buffers across all of its targets' blocks, 64 MB by default. Past the
+     * bound, the worker adds its largest blocks to their matrices and frees them.
+     */
+    public void setContextBufferBytes(long contextBufferBytes) {
+        this.contextBufferBytes = contextBufferBytes;
+    }
+
+    /**
+     * Keeps a Frequent Directions sketch of 2 * rank rows per target instead of its full matrix, and writes
+     * the best rank approximation of the sketch as factors. A rank of 0 keeps full matrices.
+     */
+    public void setSketchRank(int sketchRank) {
+        this.sketchRank = sketchRank;
+    }
+
     private void loadTargets(String targetsPath) {
         /**
          * Loads target words from text file.
@@ -91,16 +165,17 @@ public class EmbeddingDMatrixGenerator {
     public void generateMatrices() {
         System.out.println("Generating matrices...");
         long startTime = System.nanoTime();
-        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
-        List<List<String>> filePathPartitions = IOUtils.getFilePathPartitions(corpusRoot, numThreads);
-        for (List<String> filePathPartition : filePathPartitions) {
-            pool.submit(new DMatrixFileWorkerDense(filePathPartition, this));
+        allocateMatrices();
+        List<DMatrixFileWorkerDense> workers = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            workers.add(new DMatrixFileWorkerDense(this));
         }
-        pool.shutdown();
-        try {
-            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            //TODO: see if graceful exit is possible here
+        FileScheduler scheduler = new FileScheduler(corpusRoot, FileScheduler.DEFAULT_SPLIT_SIZE);
+        if (numParsers <= 0 || CompiledCorpus.isCompiled(corpusRoot)) {
+            scheduler.run(workers);
+        } else {
+            new Pipeline<String, String[]>(scheduler, Math.max(numReaders, 1), numParsers).run(Pipeline::lines,
+                    () -> tokenizedFileReaderFactory.getTokenizer()::tokenize, workers);
         }
         System.out.println(String.format("Matrix generation took %d seconds",
                 (System.nanoTime() - startTime) / 1000000000));
@@ -114,7 +189,7 @@ public class EmbeddingDMatrixGenerator {
         return output;
     }
 
-    private void updateMatrix(String target, float[] baseContext) {
+    void updateMatrix(String target, float[] baseContext) {
         float[] context = Arrays.copyOf(baseContext, baseContext.length);
         float[] targetVector = wordMap.get(target);
         if (targetVector != null) {
@@ -126,33 +201,119 @@ public class EmbeddingDMatrixGenerator {
         if (squareNorm  == 0.0f) {
             return;
         }
-        float[][] prev = densityMatrices.get(target);
-        synchronized (prev) {
-            if (contextNorm) {
-                for (int i = 0; i < this.dim; i++) {
-                    for (int j = 0; j < this.dim - i; j++) {
-                        prev[i][j] += context[i] * context[i + j] / squareNorm;
-                    }
+        addContexts(target, context, new float[]{contextNorm ? 1.0f / squareNorm : 1.0f}, 1);
+    }
+
+    /**
+     * Adds scales[r] * c c^T to a target's matrix for each of the count contexts c stored one after another.
+     */
+    private void addContexts(String target, float[] contexts, float[] scales, int count) {
+        int[] updateCount = updateCounts.get(target);
+        synchronized (updateCount) {
+            updateCount[0] += count;
+            if (sketches != null) {
+                FrequentDirections sketch = sketches.get(target);
+                for (int r = 0; r < count; r++) {
+                    sketch.add(contexts, r * dim, scales[r]);
                 }
+            } else if (count == 1) {
+                RankOneUpdate.update(densityMatrices.get(target), contexts, scales[0], dim);
             } else {
-                for (int i = 0; i < this.dim; i++) {
-                    for (int j = 0; j < this.dim - i; j++) {
-                        prev[i][j] += context[i] * context[i + j];
-                    }
-                }
+                RankOneUpdate.updateBlock(densityMatrices.get(target), contexts, scales, count, dim);
+            }
+        }
+    }
+
+    /**
+     * Buffers the context of a target occurrence in a worker's block, adding the block to the target's
+     * matrix once it is full.
+     *
+     * @return the number of bytes the block grew by
+     */
+    private long bufferContext(String target, float[] baseContext, ContextBlock block) {
+        float[] targetVector = wordMap.get(target);
+        long grown = block.ensureCapacity(dim, contextBlockSize);
+        int base = block.size * dim;
+        float squareNorm = 0.0f;
+        for (int i = 0; i < dim; i++) {
+            float value = targetVector != null ? baseContext[i] - targetVector[i] : baseContext[i];
+            block.contexts[base + i] = value;
+            squareNorm += value * value;
+        }
+        if (squareNorm == 0.0f) {
+            return grown;
+        }
+        block.scales[block.size++] = contextNorm ? 1.0f / squareNorm : 1.0f;
+        if (block.size == contextBlockSize) {
+            flushBlock(target, block);
+        }
+        return grown;
+    }
+
+    private void flushBlock(String target, ContextBlock block) {
+        if (block.size == 0) {
+            return;
+        }
+        addContexts(target, block.contexts, block.scales, block.size);
+        block.size = 0;
+    }
+
+    /**
+     * Contexts of one target buffered by a worker, grown on demand up to the block size so that rare targets
+     * stay small.
+     */
+    private static class ContextBlock {
+        float[] contexts = new float[0];
+        float[] scales = new float[0];
+        int size;
+
+        /**
+         * @return the number of bytes the block grew by
+         */
+        long ensureCapacity(int dim, int blockSize) {
+            if (size < scales.length) {
+                return 0;
             }
+            long before = bytes();
+            int capacity = Math.min(Math.max(2 * scales.length, 1), blockSize);
+            contexts = Arrays.copyOf(contexts, capacity * dim);
+            scales = Arrays.copyOf(scales, capacity);
+            return bytes() - before;
+        }
+
+        long bytes() {
+            return 4L * (contexts.length + scales.length);
+        }
+
+        /**
+         * Frees the buffers of an empty block, returning the number of bytes freed.
+         */
+        long release() {
+            long freed = bytes();
+            contexts = new float[0];
+            scales = new float[0];
+            return freed;
         }
     }
 
     public float[][] getMatrix(String target) {
+        if (sketches == null && densityMatrices == null) {
+            // Nothing has been generated yet.
+            return targets.contains(target) ? new float[dim][dim] : null;
+        }
+        if (sketches != null) {
+            FrequentDirections sketch = sketches.get(target);
+            return sketch == null ? null : sketch.factorMatrix();
+        }
         float[][] output = new float[dim][dim];
-        float[][] data = densityMatrices.get(target);
+        float[] data = densityMatrices.get(target);
         if (data == null) {
             return null;
         }
+        int index = 0;
         for (int i = 0; i < dim; i++) {
-            for (int j = 0; j < dim - i; j++) {
-                output[i][i + j] = output[i + j][i] = data[i][j];
+            for (int j = i; j < dim; j++) {
+                output[i][j] = output[j][i] = data[index++];
             }
         }
         return output;
@@ -161,23 +322,28 @@ public class EmbeddingDMatrixGenerator {
 
     public void writeMatrices(String outputPath) {
         for (String target : targets) {
-            float[][] matrix = densityMatrices.get(target);
-            outer:
-            for (float[] row : matrix) {
-                for (float value : row) {
-                    if (value != 0.0) {
-                        DenseDMatrixWriter writer = new DenseDMatrixWriter(target, outputPath);
-                        writer.writeMatrix(matrix);
-                        writer.close();
-                        break outer;
-                    }
-                }
+            if (updateCounts.get(target)[0] == 0) {
+                continue;
+            }
+            DenseDMatrixWriter writer = new DenseDMatrixWriter(target, outputPath);
+            if (sketches != null) {
+                writer.writeFactors(sketches.get(target).factors(), dim);
+            } else if (packedOutput) {
+                writer.writePacked(densityMatrices.get(target), dim);
+            } else {
+                writer.writeValues(densityMatrices.get(target));
             }
+            writer.close();
         }
         try {
             PrintWriter writer = new PrintWriter(Paths.get(outputPath, "parameters.txt").toString());
             writer.println(String.format("%s %d", "dimension", dim));
-            writer.println("dense");
+            if (sketches != null) {
+                writer.println("factors");
+                writer.println(String.format("%s %d", "rank", sketchRank));
+            } else {
+                writer.println(packedOutput ? "packed" : "dense");
+            }
             writer.flush();
             writer.close();
         } catch (FileNotFoundException e) {
@@ -185,35 +351,66 @@ public class EmbeddingDMatrixGenerator {
         }
     }
 
-    private class DMatrixFileWorkerDense implements Runnable {
-        private List<String> paths;
+    private class DMatrixFileWorkerDense implements FileScheduler.Worker, Pipeline.Consumer<String[]> {
         private EmbeddingDMatrixGenerator dMatrixGenerator;
+        private Map<String, ContextBlock> blocks = new HashMap<>();
+        private long bufferedBytes;
 
-        DMatrixFileWorkerDense(List<String> paths, EmbeddingDMatrixGenerator dMatrixGenerator) {
-            this.paths = paths;
+        DMatrixFileWorkerDense(EmbeddingDMatrixGenerator dMatrixGenerator) {
             this.dMatrixGenerator = dMatrixGenerator;
         }
 
-        public void run() {
-            for (String path : paths) {
-                this.processFile(path);
+        public void processFile(FileSplit split) {
+            TokenizedFileReader reader = dMatrixGenerator.tokenizedFileReaderFactory.getReader(split);
+            String[] tokens;
+            while ((tokens = reader.readLineTokens()) != null) {
+                accept(tokens);
             }
+            reader.close();
         }
 
-        private void processFile(String path) {
-            TokenizedFileReader reader = dMatrixGenerator.tokenizedFileReaderFactory.getReader(path);
-            String[] tokens;
-            while ((tokens = reader.readLineTokens()) != null) {
-                if (tokens.length == 0)
+        public void accept(String[] tokens) {
+            if (tokens.length == 0)
+                return;
+            float[] baseContext = dMatrixGenerator.getContext(tokens);
+            for (String target : tokens) {
+                if (!dMatrixGenerator.targets.contains(target)) {
                     continue;
-                float[] baseContext = dMatrixGenerator.getContext(tokens);
-                for (String target : tokens) {
-                    if (dMatrixGenerator.targets.contains(target)) {
-                        dMatrixGenerator.updateMatrix(target, baseContext);
+                }
+                if (dMatrixGenerator.contextBlockSize <= 1 || dMatrixGenerator.sketchRank > 0) {
+                    dMatrixGenerator.updateMatrix(target, baseContext);
+                } else {
+                    bufferedBytes += dMatrixGenerator.bufferContext(target, baseContext,
+                            blocks.computeIfAbsent(target, t -> new ContextBlock()));
+                    if (bufferedBytes > dMatrixGenerator.contextBufferBytes) {
+                        releaseLargestBlocks();
                     }
                 }
             }
-            reader.close();
+        }
+
+        /**
+         * Adds the largest blocks to their matrices and frees them, until the buffered contexts take at most
+         * half of the bound.
+         */
+        private void releaseLargestBlocks() {
+            List<Map.Entry<String, ContextBlock>> entries = new ArrayList<>(blocks.entrySet());
+            entries.sort(Comparator.comparingLong((Map.Entry<String, ContextBlock> entry) -> entry.getValue().bytes())
+                    .reversed());
+            for (Map.Entry<String, ContextBlock> entry : entries) {
+                if (bufferedBytes <= dMatrixGenerator.contextBufferBytes / 2) {
+                    break;
+                }
+                dMatrixGenerator.flushBlock(entry.getKey(), entry.getValue());
+                bufferedBytes -= entry.getValue().release();
+                blocks.remove(entry.getKey());
+            }
+        }
+
+        public void finish() {
+            for (Map.Entry<String, ContextBlock> entry : blocks.entrySet()) {
+                dMatrixGenerator.flushBlock(entry.getKey(), entry.getValue());
+            }
         }
     }
 
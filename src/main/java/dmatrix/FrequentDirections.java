@@ -0,0 +1,207 @@
+package dmatrix;
+
+import java.util.Arrays;
+
+/**
+ * Frequent Directions sketch of a sum of rank one matrices, sum of a a^T over a stream of vectors a.
+ * <p>
+ * The sketch keeps 2 * rank rows B with B^T B approximating the sum. When all rows are used it is shrunk:
+ * the rows are rotated onto their singular vectors and every squared singular value is reduced by the
+ * rank-th largest one, which clears at least half the rows. For any unit x, x^T (A^T A - B^T B) x lies
+ * between 0 and ||A||_F^2 / rank. Memory is O(rank * dim), allocated on the first update.
+ */
+class FrequentDirections {
+
+    private static final int MAX_SWEEPS = 50;
+
+    private final int rank;
+    private final int dim;
+    private float[] rows;
+    private int size;
+
+    FrequentDirections(int rank, int dim) {
+        this.rank = rank;
+        this.dim = dim;
+    }
+
+    /**
+     * Adds scale * v v^T, where v is the dim values of vectors from offset.
+     */
+    void add(float[] vectors, int offset, float scale) {
+        if (rows == null) {
+            rows = new float[2 * rank * dim];
+        }
+        if (size == 2 * rank) {
+            shrink(rank);
+        }
+        float rowScale = (float) Math.sqrt(scale);
+        int base = size * dim;
+        for (int i = 0; i < dim; i++) {
+            rows[base + i] = rowScale * vectors[offset + i];
+        }
+        size++;
+    }
+
+    /**
+     * Returns the at most rank rows F of the best rank approximation of the sketch, with F^T F approximating
+     * the sum, one row after another.
+     */
+    float[] factors() {
+        if (rows == null) {
+            return new float[0];
+        }
+        float[] sketch = Arrays.copyOf(rows, size * dim);
+        int sketchSize = size;
+        if (size > rank) {
+            truncate(rank);
+        }
+        float[] output = Arrays.copyOf(rows, size * dim);
+        System.arraycopy(sketch, 0, rows, 0, sketch.length);
+        size = sketchSize;
+        return output;
+    }
+
+    /**
+     * Returns F^T F of the factors as a dense dim x dim matrix, the matrix that writing the factors stores.
+     */
+    float[][] factorMatrix() {
+        float[] factors = factors();
+        float[][] output = new float[dim][dim];
+        for (int base = 0; base < factors.length; base += dim) {
+            for (int i = 0; i < dim; i++) {
+                float value = factors[base + i];
+                for (int j = i; j < dim; j++) {
+                    output[i][j] += value * factors[base + j];
+                }
+            }
+        }
+        for (int i = 0; i < dim; i++) {
+            for (int j = 0; j < i; j++) {
+                output[i][j] = output[j][i];
+            }
+        }
+        return output;
+    }
+
+    private void shrink(int keep) {
+        rotate(keep, true);
+    }
+
+    private void truncate(int keep) {
+        rotate(keep, false);
+    }
+
+    /**
+     * Replaces the rows by their top keep singular directions, scaled by their singular values. When
+     * shrinking, the squared singular values are first reduced by the keep-th largest.
+     */
+    private void rotate(int keep, boolean shrink) {
+        // Eigendecomposition of the Gram matrix B B^T gives the squared singular values and left singular
+        // vectors of B, without decomposing the dim wide rows themselves.
+        double[][] gram = new double[size][size];
+        for (int a = 0; a < size; a++) {
+            for (int b = a; b < size; b++) {
+                double dot = 0.0;
+                for (int i = 0; i < dim; i++) {
+                    dot += (double) rows[a * dim + i] * rows[b * dim + i];
+                }
+                gram[a][b] = gram[b][a] = dot;
+            }
+        }
+        double[][] vectors = new double[size][size];
+        double[] values = jacobi(gram, vectors);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+        double delta = shrink && keep < size ? Math.max(values[order[keep]], 0.0) : 0.0;
+        float[] rotated = new float[rows.length];
+        int kept = 0;
+        for (int k = 0; k < Math.min(keep, size); k++) {
+            int index = order[k];
+            double value = values[index];
+            if (value <= delta || value <= 0.0) {
+                break;
+            }
+            // Row sqrt(value - delta) * v, where v = B^T u / sqrt(value).
+            double coefficient = Math.sqrt((value - delta) / value);
+            int base = kept * dim;
+            for (int r = 0; r < size; r++) {
+                double weight = coefficient * vectors[r][index];
+                if (weight == 0.0) {
+                    continue;
+                }
+                for (int i = 0; i < dim; i++) {
+                    rotated[base + i] += (float) (weight * rows[r * dim + i]);
+                }
+            }
+            kept++;
+        }
+        rows = rotated;
+        size = kept;
+    }
+
+    /**
+     * Cyclic Jacobi eigendecomposition of a symmetric matrix, which is overwritten. Eigenvectors are stored
+     * as the columns of vectors, and the eigenvalues are returned.
+     */
+    static double[] jacobi(double[][] matrix, double[][] vectors) {
+        int n = matrix.length;
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(vectors[i], 0.0);
+            vectors[i][i] = 1.0;
+        }
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double offDiagonal = 0.0;
+            double diagonal = 0.0;
+            for (int p = 0; p < n; p++) {
+                diagonal += matrix[p][p] * matrix[p][p];
+                for (int q = p + 1; q < n; q++) {
+                    offDiagonal += matrix[p][q] * matrix[p][q];
+                }
+            }
+            if (offDiagonal <= 1e-24 * diagonal || offDiagonal == 0.0) {
+                break;
+            }
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (matrix[p][q] == 0.0) {
+                        continue;
+                    }
+                    double theta = (matrix[q][q] - matrix[p][p]) / (2.0 * matrix[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+                    if (theta == 0.0) {
+                        t = 1.0;
+                    }
+                    double c = 1.0 / Math.sqrt(t * t + 1.0);
+                    double s = t * c;
+                    for (int k = 0; k < n; k++) {
+                        double kp = matrix[k][p];
+                        double kq = matrix[k][q];
+                        matrix[k][p] = c * kp - s * kq;
+                        matrix[k][q] = s * kp + c * kq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double pk = matrix[p][k];
+                        double qk = matrix[q][k];
+                        matrix[p][k] = c * pk - s * qk;
+                        matrix[q][k] = s * pk + c * qk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double kp = vectors[k][p];
+                        double kq = vectors[k][q];
+                        vectors[k][p] = c * kp - s * kq;
+                        vectors[k][q] = s * kp + c * kq;
+                    }
+                }
+            }
+        }
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = matrix[i][i];
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,54 @@
+package dmatrix;
+
+/**
+ * Rank one updates of packed upper triangular matrices, M += scale * v v^T.
+ * <p>
+ * The inner loop runs over contiguous slices of the matrix and the vector with the scale folded into a
+ * per-row constant, which is the form the JIT compiles to SIMD instructions on its own.
+ */
+final class RankOneUpdate {
+
+    private RankOneUpdate() {
+    }
+
+    /**
+     * Adds scale * v v^T to a packed matrix whose row i holds the dim - i values from the diagonal onwards.
+     */
+    static void update(float[] packed, float[] vector, float scale, int dim) {
+        int rowStart = 0;
+        for (int i = 0; i < dim; i++) {
+            float rowScale = vector[i] * scale;
+            if (rowScale != 0.0f) {
+                // Entry (i, j) of the row is at rowStart + j - i.
+                int offset = rowStart - i;
+                for (int j = i; j < dim; j++) {
+                    packed[offset + j] += rowScale * vector[j];
+                }
+            }
+            rowStart += dim - i;
+        }
+    }
+
+    /**
+     * Adds the sum of scales[r] * v_r v_r^T over count vectors stored one after another in vectors, as one
+     * symmetric rank-k update. Each row of the matrix takes every vector's contribution while it is in cache.
+     */
+    static void updateBlock(float[] packed, float[] vectors, float[] scales, int count, int dim) {
+        int rowStart = 0;
+        for (int i = 0; i < dim; i++) {
+            int offset = rowStart - i;
+            for (int r = 0; r < count; r++) {
+                int base = r * dim;
+                float rowScale = vectors[base + i] * scales[r];
+                if (rowScale == 0.0f) {
+                    continue;
+                }
+                for (int j = i; j < dim; j++) {
+                    packed[offset + j] += rowScale * vectors[base + j];
+                }
+            }
+            rowStart += dim - i;
+        }
+    }
+
+}
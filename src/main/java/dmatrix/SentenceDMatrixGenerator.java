@@ -4,13 +4,8 @@ import dmatrix.io.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.Runnable;
-import java.lang.InterruptedException;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Density matrix generator using sparse updates.
@@ -27,9 +22,22 @@ public class SentenceDMatrixGenerator extends CountDMatrixGenerator {
         boolean getVectors = (Integer.parseInt(args[4]) == 1);
         String outputPath = args[5];
         int numRuns = Integer.parseInt(args[6]);
+        int sampleLines = args.length > 8 ? Integer.parseInt(args[8]) : 0;
         Set<String> targets = loadTargets(targetsPath, outputPath);
         SentenceDMatrixGenerator dmg
-                = new SentenceDMatrixGenerator(corpusRoot, targets, dim, numThreads, numRuns, getVectors);
+                = new SentenceDMatrixGenerator(corpusRoot, targets, dim, numThreads, numRuns, getVectors, sampleLines);
+        if (args.length > 7) {
+            dmg.setShardMemoryBudget(Long.parseLong(args[7]) * 1024 * 1024);
+        }
+        if (args.length > 10) {
+            dmg.setPipeline(Integer.parseInt(args[9]), Integer.parseInt(args[10]));
+        }
+        if (args.length > 11) {
+            dmg.setConsolidatedOutput(Integer.parseInt(args[11]) == 1);
+        }
+        if (args.length > 12) {
+            dmg.setSpillMemoryBudget(Long.parseLong(args[12]) * 1024 * 1024);
+        }
         dmg.generateAndWriteMatrices(outputPath);
     }
 
@@ -38,6 +46,11 @@ public class SentenceDMatrixGenerator extends CountDMatrixGenerator {
         super(corpusRoot, targets, dim, numThreads, numRuns, getVectors);
     }
 
+    public SentenceDMatrixGenerator(String corpusRoot, Set<String> targets, int dim, int numThreads,
+                                    int numRuns, boolean getVectors, int sampleLines) {
+        super(corpusRoot, targets, dim, numThreads, numRuns, getVectors, sampleLines);
+    }
+
     public SentenceDMatrixGenerator(String corpusRoot, Set<String> targets, int dim, int numThreads,
                                     boolean getVectors) {
         super(corpusRoot, targets, dim, numThreads, 1, getVectors);
@@ -49,7 +62,9 @@ public class SentenceDMatrixGenerator extends CountDMatrixGenerator {
         TokenizedFileReaderFactory tokenizedFileReaderFactory = new TokenizedFileReaderFactory();
         WordmapGenerator wordmapGenerator
                 = new WordmapGenerator(corpusRoot, tokenizedFileReaderFactory, numThreads, dim);
+        wordmapGenerator.setSampleLines(sampleLines);
         wordMap = wordmapGenerator.generate();
+        setTargetFrequencies(wordmapGenerator::getCount);
         if (dim == 0) {
             softCutoff = true;
             cutoff = wordmapGenerator.getCutoff();
@@ -67,59 +82,65 @@ public class SentenceDMatrixGenerator extends CountDMatrixGenerator {
         // Generate matrices.
         System.out.println("Generating matrices...");
         long startTime = System.nanoTime();
-        List<List<String>> filePathPartitions = IOUtils.getFilePathPartitions(corpusRoot, numThreads);
-        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
-        for (List<String> filePathPartition : filePathPartitions) {
-            pool.submit(new DMatrixFileWorker(filePathPartition));
-        }
-        pool.shutdown();
-        try {
-            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            //TODO: see if graceful exit is possible here
+        List<DMatrixFileWorker> workers = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            workers.add(new DMatrixFileWorker());
         }
+        runWorkers(workers);
+        mergeShards();
         System.out.println(String.format("Matrix generation took %d seconds",
                 (System.nanoTime() - startTime) / 1000000000));
     }
 
-    private class DMatrixFileWorker implements Runnable {
-        private List<String> filePaths;
+    private class DMatrixFileWorker implements FileScheduler.Worker, Pipeline.Consumer<int[]> {
         private TokenizedFileReaderFactory tokenizedFileReaderFactory;
+        private DMatrixShard shard;
+        private Context context;
+        private long[] wordCounts;
 
-        DMatrixFileWorker(List<String> paths) {
-            this.filePaths = paths;
+        DMatrixFileWorker() {
             tokenizedFileReaderFactory = new TokenizedFileReaderFactory();
+            shard = createShard();
+            context = new Context();
+            wordCounts = new long[vocabulary.size()];
         }
 
-        public void run() {
-            filePaths.forEach(this::processFile);
+        public void finish() {
+            mergeWordCounts(wordCounts);
         }
 
-        void processFile(String path) {
-            TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(path);
-            String[] strTokens;
-            while ((strTokens = reader.readLineTokens()) != null) {
-                Map<String, Integer> context = new HashMap<>();
-                for (String token : strTokens) {
-                    if (wordMap.containsKey(token)) {
-                        context.put(token, context.getOrDefault(token, 0) + 1);
-                    }
+        public void processFile(FileSplit split) {
+            TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(split);
+            int[] ids;
+            while ((ids = reader.readLineIds(vocabulary)) != null) {
+                accept(ids);
+            }
+            reader.close();
+        }
+
+        public void accept(int[] ids) {
+            wordCounts = countWords(wordCounts, ids);
+            context.clear();
+            for (int id : ids) {
+                if (vocabulary.isContext(id)) {
+                    context.add(id);
                 }
-                for (String token : strTokens) {
-                    if (targets.contains(token)) {
-                        if (wordMap.containsKey(token) && context.containsKey(token)) {
-                            context.put(token, context.get(token) - 1);
-                            updateMatrix(token, context);
-                            updateVector(token, context);
-                            context.put(token, context.get(token) + 1);
-                        } else {
-                            updateMatrix(token, context);
-                            updateVector(token, context);
-                        }
+            }
+            context.compact();
+            for (int id : ids) {
+                if (isTarget(id)) {
+                    int index = context.indexOf(id);
+                    if (index >= 0) {
+                        context.counts[index]--;
+                        updateMatrix(shard, id, context);
+                        updateVector(shard, id, context);
+                        context.counts[index]++;
+                    } else {
+                        updateMatrix(shard, id, context);
+                        updateVector(shard, id, context);
                     }
                 }
             }
-            reader.close();
         }
 
     }
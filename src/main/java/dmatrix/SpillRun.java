@@ -0,0 +1,257 @@
+package dmatrix;
+
+import dmatrix.io.CompiledCorpus;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Sorted run of (target, x, y, value) records spilled to disk from a local shard in spill mode.
+ * <p>
+ * Records are sorted by target, then x, then y, with x <= y. Each is written as varints, the target as a
+ * delta from the previous record, x as a delta from the previous x within the same target, and y as an
+ * offset from x, followed by the float value. Runs are combined by a k-way merge that sums records with
+ * the same coordinates. Each run read by a merge holds an open file and a read buffer, so more runs than the
+ * merge fan-in are first merged in groups into intermediate runs.
+ */
+class SpillRun {
+
+    /**
+     * Receives the merged records of all runs, in order, once per coordinate.
+     */
+    interface RecordVisitor {
+        void visit(int target, int x, int y, float value) throws IOException;
+    }
+
+    static final int DEFAULT_FAN_IN = 64;
+
+    private final File file;
+
+    private SpillRun(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Writes all matrices of a shard to a new run file in directory. The shard itself is left unchanged.
+     */
+    static SpillRun write(DMatrixShard shard, int cutoff, File directory) throws IOException {
+        File file = File.createTempFile("run-", ".spill", directory);
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            RecordEncoder encoder = new RecordEncoder(outputStream);
+            for (int targetId = 0; targetId < shard.numTargets(); targetId++) {
+                float[] matrix = shard.getMatrix(targetId);
+                if (matrix == null) {
+                    continue;
+                }
+                List<Map.Entry<Pair<Integer, Integer>, Float>> sparse = new ArrayList<>();
+                Map<Pair<Integer, Integer>, Float> sparseMatrix = shard.getSparseMatrix(targetId);
+                if (sparseMatrix != null) {
+                    sparse.addAll(sparseMatrix.entrySet());
+                    sparse.sort(Comparator.comparing(Map.Entry::getKey));
+                }
+                // Soft cutoff entries of row x all lie beyond the packed entries of the row.
+                int next = 0;
+                int index = 0;
+                for (int x = 0; x < cutoff; x++) {
+                    for (int y = x; y < cutoff; y++) {
+                        if (matrix[index] != 0.0f) {
+                            encoder.write(targetId, x, y, matrix[index]);
+                        }
+                        index++;
+                    }
+                    while (next < sparse.size() && sparse.get(next).getKey().getLeft() == x) {
+                        encoder.write(targetId, x, sparse.get(next).getKey().getRight(), sparse.get(next).getValue());
+                        next++;
+                    }
+                }
+                for (; next < sparse.size(); next++) {
+                    Pair<Integer, Integer> coords = sparse.get(next).getKey();
+                    encoder.write(targetId, coords.getLeft(), coords.getRight(), sparse.get(next).getValue());
+                }
+            }
+        }
+        return new SpillRun(file);
+    }
+
+    long length() {
+        return file.length();
+    }
+
+    void delete() {
+        if (!file.delete()) {
+            System.out.println(String.format("Unable to delete spill file %s.", file.getPath()));
+        }
+    }
+
+    /**
+     * Merges runs, passing each coordinate to the visitor once with the sum of its values across runs. At
+     * most fanIn runs are open at once, and any intermediate runs are deleted once the merge is done.
+     */
+    static void merge(List<SpillRun> runs, int fanIn, RecordVisitor visitor) throws IOException {
+        List<SpillRun> reduced = reduce(runs, fanIn, false);
+        try {
+            mergeRuns(reduced, visitor);
+        } finally {
+            Set<SpillRun> inputs = identitySet(runs);
+            for (SpillRun run : reduced) {
+                if (!inputs.contains(run)) {
+                    run.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges groups of fanIn runs into intermediate runs, pass after pass, until at most fanIn runs are left.
+     * Intermediate runs are deleted once merged again, and the given runs only if deleteInputs is set.
+     *
+     * @return the remaining runs, which may include given runs left out of every group
+     */
+    static List<SpillRun> reduce(List<SpillRun> runs, int fanIn, boolean deleteInputs) throws IOException {
+        if (fanIn < 2) {
+            throw new IllegalArgumentException(String.format("Merge fan-in %d is below 2.", fanIn));
+        }
+        Set<SpillRun> inputs = identitySet(runs);
+        List<SpillRun> current = runs;
+        while (current.size() > fanIn) {
+            List<SpillRun> next = new ArrayList<>((current.size() + fanIn - 1) / fanIn);
+            for (int i = 0; i < current.size(); i += fanIn) {
+                List<SpillRun> group = current.subList(i, Math.min(i + fanIn, current.size()));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                next.add(mergeToRun(group));
+                for (SpillRun run : group) {
+                    if (deleteInputs || !inputs.contains(run)) {
+                        run.delete();
+                    }
+                }
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    private static Set<SpillRun> identitySet(List<SpillRun> runs) {
+        Set<SpillRun> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(runs);
+        return set;
+    }
+
+    /**
+     * Merges runs into a new run in the directory of the first.
+     */
+    private static SpillRun mergeToRun(List<SpillRun> runs) throws IOException {
+        File file = File.createTempFile("run-", ".spill", runs.get(0).file.getParentFile());
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            mergeRuns(runs, new RecordEncoder(outputStream)::write);
+        }
+        return new SpillRun(file);
+    }
+
+    private static void mergeRuns(List<SpillRun> runs, RecordVisitor visitor) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(runs.size(), 1));
+        List<RunReader> readers = new ArrayList<>(runs.size());
+        try {
+            for (SpillRun run : runs) {
+                RunReader reader = new RunReader(run.file);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader head = queue.poll();
+                int target = head.target;
+                int x = head.x;
+                int y = head.y;
+                float value = head.value;
+                if (head.next()) {
+                    queue.add(head);
+                }
+                while (!queue.isEmpty() && queue.peek().hasKey(target, x, y)) {
+                    RunReader reader = queue.poll();
+                    value += reader.value;
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                visitor.visit(target, x, y, value);
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static class RecordEncoder {
+        private final DataOutputStream outputStream;
+        private int target;
+        private int x;
+
+        RecordEncoder(DataOutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        void write(int target, int x, int y, float value) throws IOException {
+            CompiledCorpus.writeVarint(outputStream, target - this.target);
+            CompiledCorpus.writeVarint(outputStream, target == this.target ? x - this.x : x);
+            CompiledCorpus.writeVarint(outputStream, y - x);
+            outputStream.writeFloat(value);
+            this.target = target;
+            this.x = x;
+        }
+    }
+
+    private static class RunReader implements Comparable<RunReader> {
+        private final DataInputStream inputStream;
+        int target;
+        int x;
+        int y;
+        float value;
+
+        RunReader(File file) throws IOException {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            int targetDelta = CompiledCorpus.readVarint(inputStream);
+            if (targetDelta < 0) {
+                return false;
+            }
+            x = targetDelta == 0 ? x + CompiledCorpus.readVarint(inputStream) : CompiledCorpus.readVarint(inputStream);
+            target += targetDelta;
+            y = x + CompiledCorpus.readVarint(inputStream);
+            value = inputStream.readFloat();
+            return true;
+        }
+
+        boolean hasKey(int target, int x, int y) {
+            return this.target == target && this.x == x && this.y == y;
+        }
+
+        public int compareTo(RunReader other) {
+            if (target != other.target) {
+                return Integer.compare(target, other.target);
+            }
+            if (x != other.x) {
+                return Integer.compare(x, other.x);
+            }
+            return Integer.compare(y, other.y);
+        }
+
+        void close() {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
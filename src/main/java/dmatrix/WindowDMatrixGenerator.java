@@ -1,19 +1,17 @@
 package dmatrix;
 
-import dmatrix.io.IOUtils;
+import dmatrix.io.FileScheduler;
+import dmatrix.io.FileSplit;
+import dmatrix.io.Pipeline;
 import dmatrix.io.TokenizedFileReader;
 import dmatrix.io.TokenizedFileReaderFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Density matrix generator using sparse updates.
@@ -33,10 +31,23 @@ public class WindowDMatrixGenerator extends CountDMatrixGenerator {
         String outputPath = args[5];
         int numRuns = Integer.parseInt(args[6]);
         int windowSize = Integer.parseInt(args[7]);
+        int sampleLines = args.length > 9 ? Integer.parseInt(args[9]) : 0;
         Set<String> targets = loadTargets(targetsPath, outputPath);
         WindowDMatrixGenerator dmg
                 = new WindowDMatrixGenerator(corpusRoot, targets, dim, numThreads, numRuns,
-                getVectors, windowSize);
+                getVectors, windowSize, sampleLines);
+        if (args.length > 8) {
+            dmg.setShardMemoryBudget(Long.parseLong(args[8]) * 1024 * 1024);
+        }
+        if (args.length > 11) {
+            dmg.setPipeline(Integer.parseInt(args[10]), Integer.parseInt(args[11]));
+        }
+        if (args.length > 12) {
+            dmg.setConsolidatedOutput(Integer.parseInt(args[12]) == 1);
+        }
+        if (args.length > 13) {
+            dmg.setSpillMemoryBudget(Long.parseLong(args[13]) * 1024 * 1024);
+        }
         dmg.generateAndWriteMatrices(outputPath);
     }
 
@@ -46,6 +57,12 @@ public class WindowDMatrixGenerator extends CountDMatrixGenerator {
         this.windowSize = windowSize;
     }
 
+    public WindowDMatrixGenerator(String corpusRoot, Set<String> targets, int dim, int numThreads, int numRuns,
+                                  boolean getVectors, int windowSize, int sampleLines) {
+        super(corpusRoot, targets, dim, numThreads, numRuns, getVectors, sampleLines);
+        this.windowSize = windowSize;
+    }
+
     public WindowDMatrixGenerator(String corpusRoot, Set<String> targets, int dim, int numThreads,
                                   boolean getVectors, int windowSize) {
         super(corpusRoot, targets, dim, numThreads, 1, getVectors);
@@ -58,7 +75,9 @@ public class WindowDMatrixGenerator extends CountDMatrixGenerator {
         TokenizedFileReaderFactory tokenizedFileReaderFactory = new TokenizedFileReaderFactory();
         WordmapGenerator wordmapGenerator
                 = new WordmapGenerator(corpusRoot, tokenizedFileReaderFactory, numThreads, dim);
+        wordmapGenerator.setSampleLines(sampleLines);
         wordMap = wordmapGenerator.generate();
+        setTargetFrequencies(wordmapGenerator::getCount);
         if (dim == 0) {
             softCutoff = true;
             cutoff = wordmapGenerator.getCutoff();
@@ -76,74 +95,68 @@ public class WindowDMatrixGenerator extends CountDMatrixGenerator {
         // Generate matrices.
         System.out.println("Generating matrices...");
         long startTime = System.nanoTime();
-        List<List<String>> filePathPartitions = IOUtils.getFilePathPartitions(corpusRoot, numThreads);
-        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
-        for (List<String> filePathPartition : filePathPartitions) {
-            pool.submit(new DMatrixFileWorker(filePathPartition));
-        }
-        pool.shutdown();
-        try {
-            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            //TODO: see if graceful exit is possible here
+        List<DMatrixFileWorker> workers = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            workers.add(new DMatrixFileWorker());
         }
+        runWorkers(workers);
+        mergeShards();
         System.out.println(String.format("Matrix generation took %d seconds",
                 (System.nanoTime() - startTime) / 1000000000));
     }
 
-    private Map<String, Integer> getContext(String[] strTokens, int index) {
-        Map<String, Integer> context = new HashMap<>();
+    void getContext(int[] ids, int index, Context context) {
+        context.clear();
         int diff = 1;
-        String token;
         while (diff <= windowSize) {
-            if (index - diff >= 0) {
-                token = strTokens[index - diff];
-                if (wordMap.containsKey(token)) {
-                    context.put(token, context.getOrDefault(token, 0) + 1);
-                }
+            if (index - diff >= 0 && vocabulary.isContext(ids[index - diff])) {
+                context.add(ids[index - diff]);
             }
-            if (diff + index < strTokens.length) {
-                token = strTokens[index + diff];
-                if (wordMap.containsKey(token)) {
-                    context.put(token, context.getOrDefault(token, 0) + 1);
-                }
+            if (diff + index < ids.length && vocabulary.isContext(ids[index + diff])) {
+                context.add(ids[index + diff]);
             }
             diff++;
         }
-        return context;
+        context.compact();
     }
 
-    private class DMatrixFileWorker implements Runnable {
-        private List<String> filePaths;
+    private class DMatrixFileWorker implements FileScheduler.Worker, Pipeline.Consumer<int[]> {
         private TokenizedFileReaderFactory tokenizedFileReaderFactory;
+        private DMatrixShard shard;
+        private Context context;
+        private long[] wordCounts;
 
-        DMatrixFileWorker(List<String> paths) {
-            this.filePaths = paths;
+        DMatrixFileWorker() {
             tokenizedFileReaderFactory = new TokenizedFileReaderFactory();
+            shard = createShard();
+            context = new Context();
+            wordCounts = new long[vocabulary.size()];
         }
 
-        public void run() {
-            filePaths.forEach(this::processFile);
+        public void finish() {
+            mergeWordCounts(wordCounts);
         }
 
-        void processFile(String path) {
-            TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(path);
-            String[] strTokens;
-            String token;
-            Map<String, Integer> context;
-            while ((strTokens = reader.readLineTokens()) != null) {
-                for (int i = 0; i < strTokens.length; i++) {
-                    token = strTokens[i];
-                    if (targets.contains(token)) {
-                        context = getContext(strTokens, i);
-                        updateMatrix(token, context);
-                        updateVector(token, context);
-                    }
-                }
+        public void processFile(FileSplit split) {
+            TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(split);
+            int[] ids;
+            while ((ids = reader.readLineIds(vocabulary)) != null) {
+                accept(ids);
             }
             reader.close();
         }
 
+        public void accept(int[] ids) {
+            wordCounts = countWords(wordCounts, ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (isTarget(ids[i])) {
+                    getContext(ids, i, context);
+                    updateMatrix(shard, ids[i], context);
+                    updateVector(shard, ids[i], context);
+                }
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,233 @@
+package dmatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Open addressing word counter with primitive long counts.
+ * <p>
+ * Each counting thread owns a counter, so counting takes no locks and boxes no values. Counters are
+ * combined at the end with a parallel tree reduction, and the most frequent words are selected with a
+ * bounded heap instead of sorting the whole vocabulary. Ties are broken alphabetically.
+ */
+public class WordCounter {
+
+    private String[] keys;
+    private int[] hashes;
+    private long[] counts;
+    private int size;
+    private int mask;
+    private long total;
+
+    public WordCounter() {
+        this(1024);
+    }
+
+    public WordCounter(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sum of all counts.
+     */
+    public long total() {
+        return total;
+    }
+
+    public void add(String word) {
+        add(word, word.hashCode(), 1);
+    }
+
+    public void add(String word, long count) {
+        add(word, word.hashCode(), count);
+    }
+
+    private void add(String word, int h, long count) {
+        total += count;
+        int slot = slot(h) & mask;
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == h && keys[slot].equals(word)) {
+                counts[slot] += count;
+                return;
+            }
+        }
+        keys[slot] = word;
+        hashes[slot] = h;
+        counts[slot] = count;
+        size++;
+        if (2 * size > keys.length) {
+            rehash();
+        }
+    }
+
+    public long getCount(String word) {
+        int h = word.hashCode();
+        for (int slot = slot(h) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == h && keys[slot].equals(word)) {
+                return counts[slot];
+            }
+        }
+        return 0;
+    }
+
+    public void addAll(WordCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != null) {
+                add(other.keys[i], other.hashes[i], other.counts[i]);
+            }
+        }
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        long[] oldCounts = counts;
+        allocate(2 * oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldHashes[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Words in order of decreasing count.
+     */
+    public List<String> sorted() {
+        return top(size);
+    }
+
+    /**
+     * The n most frequent words in order of decreasing count, found with a min-heap of size n.
+     */
+    public List<String> top(int n) {
+        n = Math.min(n, size);
+        int[] heap = new int[n];
+        int heapSize = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == null) {
+                continue;
+            }
+            if (heapSize < n) {
+                heap[heapSize++] = slot;
+                siftUp(heap, heapSize - 1);
+            } else if (n > 0 && before(slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(heap, 0, heapSize);
+            }
+        }
+        // Pop the least frequent word to the end until the heap is empty, leaving it in decreasing order.
+        for (int end = heapSize - 1; end > 0; end--) {
+            int tmp = heap[0];
+            heap[0] = heap[end];
+            heap[end] = tmp;
+            siftDown(heap, 0, end);
+        }
+        List<String> output = new ArrayList<>(heapSize);
+        for (int i = 0; i < heapSize; i++) {
+            output.add(keys[heap[i]]);
+        }
+        return output;
+    }
+
+    /**
+     * Whether the word in slot a ranks before the word in slot b.
+     */
+    private boolean before(int a, int b) {
+        if (counts[a] != counts[b]) {
+            return counts[a] > counts[b];
+        }
+        return keys[a].compareTo(keys[b]) < 0;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(heap[parent], heap[i])) {
+                return;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int heapSize) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                return;
+            }
+            if (child + 1 < heapSize && before(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!before(heap[i], heap[child])) {
+                return;
+            }
+            swap(heap, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    /**
+     * Merges counters pairwise in parallel, returning the counter holding the total.
+     */
+    public static WordCounter merge(List<WordCounter> counters, int numThreads) {
+        if (counters.isEmpty()) {
+            return new WordCounter();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        for (int step = 1; step < counters.size(); step *= 2) {
+            List<Future<?>> merges = new ArrayList<>();
+            for (int i = 0; i + step < counters.size(); i += 2 * step) {
+                WordCounter dest = counters.get(i);
+                WordCounter source = counters.get(i + step);
+                merges.add(pool.submit(() -> dest.addAll(source)));
+            }
+            for (Future<?> merge : merges) {
+                try {
+                    merge.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        pool.shutdown();
+        return counters.get(0);
+    }
+
+}
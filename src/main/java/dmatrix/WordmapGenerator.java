@@ -1,15 +1,14 @@
 package dmatrix;
 
+import dmatrix.io.CompiledCorpus;
+import dmatrix.io.FileScheduler;
+import dmatrix.io.FileSplit;
 import dmatrix.io.IOUtils;
 import dmatrix.io.TextFileReader;
 import dmatrix.io.TokenizedFileReader;
 import dmatrix.io.TokenizedFileReaderFactory;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * Maps context words to specific values.
@@ -22,6 +21,8 @@ public class WordmapGenerator {
     private int numThreads;
     private int numContexts;
     private int cutoff;
+    private int sampleLines;
+    private WordCounter counts;
 
     public WordmapGenerator(String corpusRoot, TokenizedFileReaderFactory tokenizedFileReaderFactory, int numThreads, int numContexts) {
         this.corpusRoot = corpusRoot;
@@ -49,6 +50,22 @@ public class WordmapGenerator {
         return cutoff;
     }
 
+    /**
+     * Count of a word from the last call to generate, sampled if sample lines are set.
+     */
+    public long getCount(String word) {
+        return counts == null ? 0 : counts.getCount(word);
+    }
+
+    /**
+     * Estimates word frequencies from the first lines of the corpus only, instead of a full pass.
+     *
+     * @param sampleLines number of lines to sample, or 0 to count the whole corpus
+     */
+    public void setSampleLines(int sampleLines) {
+        this.sampleLines = sampleLines;
+    }
+
     public Map<String, float[]> generate(String vectorsPath) {
         List<String> topNList = getMostFrequent();
         Set<String> topN = new HashSet<>(topNList);
@@ -87,89 +104,95 @@ public class WordmapGenerator {
     }
 
     private List<String> getMostFrequent() {
-        Map<String, Integer> counts = new HashMap<>();
-        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
-        List<List<String>> filePathPartitions = IOUtils.getFilePathPartitions(corpusRoot, numThreads);
-        for (List<String> filePathPartition : filePathPartitions) {
-            pool.submit(new CountWorker(filePathPartition, tokenizedFileReaderFactory, counts));
-        }
-        pool.shutdown();
-        try {
-            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            //TODO: see if graceful exit is possible here
+        if (CompiledCorpus.isCompiled(corpusRoot)) {
+            counts = getCompiledCounts();
+        } else if (sampleLines > 0) {
+            counts = getSampleCounts();
+        } else {
+            counts = getCounts();
         }
-        List<Map.Entry<String, Integer>> sorted = counts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue()).collect(Collectors.toList());
-        Collections.reverse(sorted);
         if (numContexts <= 0 ) {
-            int total = sorted.stream().mapToInt(Map.Entry::getValue).sum();
-            int sum = 0;
+            List<String> output = counts.sorted();
+            long total = counts.total();
+            long sum = 0;
             cutoff = 0;
-            for (Map.Entry<String, Integer> entry : sorted) {
-                sum += entry.getValue();
+            for (String word : output) {
+                sum += counts.getCount(word);
                 cutoff++;
-                if ((float) sum / total > 0.85) {
+                if ((double) sum / total > 0.85) {
                     break;
                 }
             }
-            List<String> output = sorted.stream().map(Map.Entry::getKey).collect(Collectors.toList());
             return output;
         }
-        List<String> output = new ArrayList<>(numContexts);
-        int count = 0;
-        for (Map.Entry<String, Integer> entry : sorted) {
-            output.add(entry.getKey());
-            count++;
-            if (count == numContexts) {
+        return counts.top(numContexts);
+    }
+
+    private WordCounter getCounts() {
+        List<WordCounter> counters = new ArrayList<>();
+        List<CountWorker> workers = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            WordCounter counter = new WordCounter();
+            counters.add(counter);
+            workers.add(new CountWorker(tokenizedFileReaderFactory, counter));
+        }
+        new FileScheduler(corpusRoot, FileScheduler.DEFAULT_SPLIT_SIZE).run(workers);
+        return WordCounter.merge(counters, numThreads);
+    }
+
+    private WordCounter getSampleCounts() {
+        WordCounter counts = new WordCounter();
+        int numLines = 0;
+        for (String path : IOUtils.getFilePaths(corpusRoot)) {
+            TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(path);
+            String[] tokens;
+            while (numLines < sampleLines && (tokens = reader.readLineTokens()) != null) {
+                for (String token : tokens) {
+                    counts.add(token);
+                }
+                numLines++;
+            }
+            reader.close();
+            if (numLines == sampleLines) {
                 break;
             }
         }
-        return output;
+        return counts;
     }
 
-    private class CountWorker implements Runnable {
-        private List<String> paths;
+    /**
+     * Reads word counts of a compiled corpus from its vocabulary.
+     */
+    private WordCounter getCompiledCounts() {
+        CompiledCorpus corpus = CompiledCorpus.load(corpusRoot);
+        WordCounter counts = new WordCounter(corpus.size());
+        for (int i = 0; i < corpus.size(); i++) {
+            counts.add(corpus.getWord(i), corpus.getCount(i));
+        }
+        return counts;
+    }
+
+    private class CountWorker implements FileScheduler.Worker {
         private TokenizedFileReaderFactory tokenizedFileReaderFactory;
-        private final Map<String, Integer> totalCounts;
+        private final WordCounter counts;
 
-        CountWorker(List<String> paths, TokenizedFileReaderFactory tokenizedFileReaderFactory, Map<String, Integer> totalCounts) {
-            this.paths = paths;
+        CountWorker(TokenizedFileReaderFactory tokenizedFileReaderFactory, WordCounter counts) {
             this.tokenizedFileReaderFactory = tokenizedFileReaderFactory;
-            this.totalCounts = totalCounts;
+            this.counts = counts;
         }
 
-        public void run() {
-            for (String path : this.paths) {
-                Map<String, Integer> counts = new HashMap<>();
-                TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(path);
-                String[] tokens;
-                while ((tokens = reader.readLineTokens()) != null) {
-                    for (String token : tokens) {
-                        Integer prev = counts.get(token);
-                        if (prev == null) {
-                            counts.put(token, 1);
-                        } else {
-                            counts.put(token, prev + 1);
-                        }
-                    }
+        public void processFile(FileSplit split) {
+            TokenizedFileReader reader = tokenizedFileReaderFactory.getReader(split);
+            String[] tokens;
+            while ((tokens = reader.readLineTokens()) != null) {
+                for (String token : tokens) {
+                    counts.add(token);
                 }
-                this.updateCounts(counts);
             }
+            reader.close();
         }
 
-        private void updateCounts(Map<String, Integer> diff) {
-            synchronized (totalCounts) {
-                for (Map.Entry<String, Integer> entry : diff.entrySet()) {
-                    String target = entry.getKey();
-                    Integer prev = totalCounts.get(target);
-                    if (prev == null) {
-                        totalCounts.put(target, entry.getValue());
-                    } else {
-                        totalCounts.put(target, prev + entry.getValue());
-                    }
-                }
-            }
+        public void finish() {
         }
     }
 }
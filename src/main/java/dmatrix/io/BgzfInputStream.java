@@ -0,0 +1,222 @@
+package dmatrix.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file, inflating its blocks in parallel.
+ * <p>
+ * BGZF is a series of gzip members of at most 64KB each, whose extra field holds the size of the member.
+ * The reading thread only splits the file into members, and the members ahead of it are inflated on a
+ * pool shared by every stream, so a single file is decompressed on as many threads as there are cores.
+ */
+public class BgzfInputStream extends InputStream {
+
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "bgzf-inflater");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final InputStream inputStream;
+    private final int maxBlocksAhead;
+    private final ArrayDeque<Future<byte[]>> blocks = new ArrayDeque<>();
+    private final byte[] header = new byte[HEADER_SIZE];
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean endOfInput;
+
+    public BgzfInputStream(InputStream inputStream) {
+        this(inputStream, 4 * NUM_THREADS);
+    }
+
+    /**
+     * @param maxBlocksAhead number of blocks read and inflated ahead of the caller
+     */
+    public BgzfInputStream(InputStream inputStream, int maxBlocksAhead) {
+        this.inputStream = inputStream;
+        this.maxBlocksAhead = Math.max(maxBlocksAhead, 1);
+    }
+
+    /**
+     * Whether a stream starts with a BGZF member, leaving its position unchanged. The stream must support
+     * mark.
+     */
+    public static boolean isBgzf(InputStream inputStream) throws IOException {
+        byte[] start = new byte[HEADER_SIZE + 6];
+        inputStream.mark(start.length);
+        int numRead = 0;
+        int n;
+        while (numRead < start.length && (n = inputStream.read(start, numRead, start.length - numRead)) > 0) {
+            numRead += n;
+        }
+        inputStream.reset();
+        return numRead == start.length && isMemberHeader(start) && readShort(start, 10) >= 6
+                && start[12] == 'B' && start[13] == 'C' && readShort(start, 14) == 2;
+    }
+
+    private static boolean isMemberHeader(byte[] header) {
+        return (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b && header[2] == 8 && (header[3] & 4) != 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? current[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    /**
+     * Moves to the next non-empty block once the current one is used up.
+     *
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        while (position == current.length) {
+            while (!endOfInput && blocks.size() < maxBlocksAhead) {
+                byte[] member = readMember();
+                if (member == null) {
+                    endOfInput = true;
+                } else {
+                    blocks.add(pool.submit(() -> inflate(member)));
+                }
+            }
+            if (blocks.isEmpty()) {
+                return false;
+            }
+            try {
+                current = blocks.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while inflating BGZF block.");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the compressed data and trailer of the next member, or returns null at the end of the file.
+     */
+    private byte[] readMember() throws IOException {
+        int first = inputStream.read();
+        if (first < 0) {
+            return null;
+        }
+        header[0] = (byte) first;
+        readFully(header, 1, HEADER_SIZE - 1);
+        if (!isMemberHeader(header)) {
+            throw new IOException("Not a BGZF block.");
+        }
+        byte[] extra = new byte[readShort(header, 10)];
+        readFully(extra, 0, extra.length);
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= extra.length; i += 4 + readShort(extra, i + 2)) {
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && readShort(extra, i + 2) == 2) {
+                blockSize = readShort(extra, i + 4) + 1;
+            }
+        }
+        int dataSize = blockSize - HEADER_SIZE - extra.length;
+        if (blockSize < 0 || dataSize < TRAILER_SIZE) {
+            throw new IOException("BGZF block without a valid size.");
+        }
+        byte[] member = new byte[dataSize];
+        readFully(member, 0, dataSize);
+        return member;
+    }
+
+    private static byte[] inflate(byte[] member) throws IOException {
+        int length = member.length - TRAILER_SIZE;
+        int size = readInt(member, length + 4);
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new IOException("BGZF block larger than 64KB.");
+        }
+        byte[] output = new byte[size];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(member, 0, length);
+        try {
+            int numInflated = 0;
+            while (numInflated < output.length && !inflater.finished()) {
+                int n = inflater.inflate(output, numInflated, output.length - numInflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                numInflated += n;
+            }
+            if (numInflated != output.length) {
+                throw new IOException("Truncated BGZF block.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(output, 0, output.length);
+        if ((int) crc.getValue() != readInt(member, length)) {
+            throw new IOException("BGZF block failed its CRC check.");
+        }
+        return output;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = inputStream.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException("Truncated BGZF block.");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return readShort(b, offset) | readShort(b, offset + 2) << 16;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> block : blocks) {
+            block.cancel(false);
+        }
+        blocks.clear();
+        inputStream.close();
+    }
+
+}
@@ -0,0 +1,157 @@
+package dmatrix.io;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompression of corpus files, picked from the file extension.
+ * <p>
+ * Gzip files made of BGZF blocks, as written by bgzip, are inflated in parallel by BgzfInputStream, and
+ * other gzip files by GZIPInputStream. Zstandard and LZ4 frame files are read through zstd-jni and
+ * lz4-java, which are looked up at runtime so that they are only needed for corpora that use them.
+ */
+public abstract class Codec {
+
+    public static final Codec NONE = new Codec("none") {
+        InputStream wrap(InputStream inputStream, int bufferSize) {
+            return inputStream;
+        }
+    };
+
+    public static final Codec GZIP = new Codec("gzip") {
+        InputStream wrap(InputStream inputStream, int bufferSize) throws IOException {
+            BufferedInputStream buffered = new BufferedInputStream(inputStream, bufferSize);
+            if (BgzfInputStream.isBgzf(buffered)) {
+                return new BgzfInputStream(buffered);
+            }
+            return new GZIPInputStream(buffered, bufferSize);
+        }
+    };
+
+    public static final Codec ZSTD = new LibraryCodec("zstd", "com.github.luben.zstd.ZstdInputStream",
+            "com.github.luben:zstd-jni");
+
+    public static final Codec LZ4 = new LibraryCodec("lz4", "net.jpountz.lz4.LZ4FrameInputStream",
+            "org.lz4:lz4-java");
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final String name;
+
+    private Codec(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the codec of a file from its extension: gz or bgz for gzip, zst for Zstandard and lz4 for
+     * LZ4, or NONE for any other file.
+     */
+    public static Codec forPath(String path) {
+        switch (IOUtils.getFileExtension(path)) {
+            case "gz":
+            case "bgz":
+                return GZIP;
+            case "zst":
+                return ZSTD;
+            case "lz4":
+                return LZ4;
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Opens a file, decompressing it with the codec of its extension.
+     */
+    public static InputStream open(String path) throws IOException {
+        return open(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize size in bytes of the buffer for the compressed input
+     */
+    public static InputStream open(String path, int bufferSize) throws IOException {
+        return forPath(path).open(new FileInputStream(path), bufferSize);
+    }
+
+    public InputStream open(InputStream inputStream) throws IOException {
+        return open(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Wraps a stream of compressed bytes, closing it if the codec can not read it.
+     */
+    public InputStream open(InputStream inputStream, int bufferSize) throws IOException {
+        try {
+            return wrap(inputStream, bufferSize);
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    abstract InputStream wrap(InputStream inputStream, int bufferSize) throws IOException;
+
+    /**
+     * Whether files of this codec can only be read from the start, and so are never split.
+     */
+    public boolean isCompressed() {
+        return this != NONE;
+    }
+
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Codec backed by an InputStream(InputStream) constructor of an optional library.
+     */
+    private static class LibraryCodec extends Codec {
+        private final String className;
+        private final String artifact;
+        private volatile Constructor<?> constructor;
+
+        LibraryCodec(String name, String className, String artifact) {
+            super(name);
+            this.className = className;
+            this.artifact = artifact;
+        }
+
+        private Constructor<?> getConstructor() {
+            if (constructor == null) {
+                try {
+                    constructor = Class.forName(className).getConstructor(InputStream.class);
+                } catch (ClassNotFoundException | NoSuchMethodException e) {
+                    return null;
+                }
+            }
+            return constructor;
+        }
+
+        public boolean isAvailable() {
+            return getConstructor() != null;
+        }
+
+        InputStream wrap(InputStream inputStream, int bufferSize) throws IOException {
+            Constructor<?> constructor = getConstructor();
+            if (constructor == null) {
+                throw new IOException(String.format("Reading %s files needs %s on the classpath.", this, artifact));
+            }
+            try {
+                return (InputStream) constructor.newInstance(new BufferedInputStream(inputStream, bufferSize));
+            } catch (ReflectiveOperationException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package dmatrix.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Vocabulary of a corpus pre-encoded by CorpusCompiler.
+ * <p>
+ * A compiled corpus directory holds a corpus.vocab file, with one "word count" pair per line in order of
+ * decreasing frequency, and one .ids file per source file. Each sentence in an .ids file is a varint length
+ * followed by that many varint word ids, where the id of a word is its line in corpus.vocab.
+ */
+public class CompiledCorpus {
+
+    public static final String VOCAB_FILE = "corpus.vocab";
+    public static final String EXTENSION = "ids";
+
+    private static final Map<String, CompiledCorpus> loaded = new ConcurrentHashMap<>();
+
+    private final String[] words;
+    private final long[] counts;
+    // Length and modification time of the vocabulary file when read, to detect a recompiled corpus.
+    private final long vocabLength;
+    private final long vocabModified;
+    private Vocabulary mappedVocabulary;
+    private int[] mapping;
+
+    private CompiledCorpus(String[] words, long[] counts, long vocabLength, long vocabModified) {
+        this.words = words;
+        this.counts = counts;
+        this.vocabLength = vocabLength;
+        this.vocabModified = vocabModified;
+    }
+
+    public static boolean isCompiled(String root) {
+        return new File(Paths.get(root, VOCAB_FILE).toString()).isFile();
+    }
+
+    /**
+     * Returns the vocabulary of the compiled corpus in the given directory, loading it once per directory
+     * and again whenever the corpus has been recompiled.
+     */
+    public static CompiledCorpus load(String root) {
+        return loaded.compute(new File(root).getAbsolutePath(),
+                (path, corpus) -> corpus != null && corpus.isCurrent(path) ? corpus : read(path));
+    }
+
+    private boolean isCurrent(String root) {
+        File vocabFile = new File(Paths.get(root, VOCAB_FILE).toString());
+        return vocabFile.length() == vocabLength && vocabFile.lastModified() == vocabModified;
+    }
+
+    private static CompiledCorpus read(String root) {
+        File vocabFile = new File(Paths.get(root, VOCAB_FILE).toString());
+        long vocabLength = vocabFile.length();
+        long vocabModified = vocabFile.lastModified();
+        List<String> words = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        TextFileReader reader = new TextFileReader(Paths.get(root, VOCAB_FILE).toString());
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int split = line.lastIndexOf(' ');
+            words.add(line.substring(0, split));
+            counts.add(Long.parseLong(line.substring(split + 1)));
+        }
+        reader.close();
+        long[] countsArray = new long[counts.size()];
+        for (int i = 0; i < countsArray.length; i++) {
+            countsArray[i] = counts.get(i);
+        }
+        return new CompiledCorpus(words.toArray(new String[words.size()]), countsArray, vocabLength, vocabModified);
+    }
+
+    public static void writeVocabulary(String root, String[] words, long[] counts) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(Paths.get(root, VOCAB_FILE).toString()), StandardCharsets.UTF_8));
+        for (int i = 0; i < words.length; i++) {
+            writer.write(words[i]);
+            writer.write(' ');
+            writer.write(Long.toString(counts[i]));
+            writer.newLine();
+        }
+        writer.close();
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    public String getWord(int id) {
+        return words[id];
+    }
+
+    public long getCount(int id) {
+        return counts[id];
+    }
+
+    /**
+     * Maps corpus ids to the ids of the given vocabulary, with -1 for words outside it.
+     */
+    public synchronized int[] getMapping(Vocabulary vocabulary) {
+        if (vocabulary != mappedVocabulary) {
+            mapping = new int[words.length];
+            for (int i = 0; i < words.length; i++) {
+                mapping[i] = vocabulary.getId(words[i]);
+            }
+            mappedVocabulary = vocabulary;
+        }
+        return mapping;
+    }
+
+    public static void writeVarint(OutputStream outputStream, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            outputStream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        outputStream.write(value);
+    }
+
+    /**
+     * Reads a varint from a stream, returning -1 at the end of the stream.
+     */
+    public static int readVarint(InputStream inputStream) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = inputStream.read();
+            if (b < 0) {
+                return -1;
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+}
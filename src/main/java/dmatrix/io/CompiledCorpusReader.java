@@ -0,0 +1,120 @@
+package dmatrix.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads sentences from a memory-mapped .ids file of a compiled corpus.
+ * <p>
+ * Sentences come back already tokenized, so no decompression, regex or stop word filtering is done.
+ */
+public class CompiledCorpusReader extends TokenizedFileReader {
+
+    // Files larger than this are mapped in consecutive windows.
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private final CompiledCorpus corpus;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long bufferStart;
+    private long fileSize;
+    private int[] sentence;
+
+    public CompiledCorpusReader(String path, CompiledCorpus corpus) {
+        this.corpus = corpus;
+        this.sentence = new int[64];
+        try {
+            channel = new RandomAccessFile(path, "r").getChannel();
+            fileSize = channel.size();
+            map(0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void map(long position) throws IOException {
+        bufferStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, fileSize - position));
+    }
+
+    /**
+     * Ensures that the given number of bytes, or the rest of the file, can be read from the mapped window.
+     */
+    private void ensureMapped(long numBytes) throws IOException {
+        if (buffer.remaining() < numBytes && bufferStart + buffer.limit() < fileSize) {
+            map(bufferStart + buffer.position());
+        }
+    }
+
+    /**
+     * Reads the next sentence as corpus ids into the reused sentence buffer.
+     *
+     * @return the sentence length, or -1 at the end of the file
+     */
+    private int readSentence() {
+        try {
+            if (buffer == null) {
+                return -1;
+            }
+            ensureMapped(MAX_VARINT_BYTES);
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = CompiledCorpus.readVarint(buffer);
+            ensureMapped((long) length * MAX_VARINT_BYTES);
+            if (sentence.length < length) {
+                sentence = new int[Math.max(length, 2 * sentence.length)];
+            }
+            for (int i = 0; i < length; i++) {
+                sentence[i] = CompiledCorpus.readVarint(buffer);
+            }
+            return length;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    @Override
+    public String[] readLineTokens() {
+        int length = readSentence();
+        if (length < 0) return null;
+        String[] tokens = new String[length];
+        for (int i = 0; i < length; i++) {
+            tokens[i] = corpus.getWord(sentence[i]);
+        }
+        return tokens;
+    }
+
+    @Override
+    public int[] readLineIds(Vocabulary vocabulary) {
+        int length = readSentence();
+        if (length < 0) return null;
+        int[] mapping = corpus.getMapping(vocabulary);
+        int[] ids = new int[length];
+        for (int i = 0; i < length; i++) {
+            ids[i] = mapping[sentence[i]];
+        }
+        return ids;
+    }
+
+    @Override
+    public String readLine() {
+        String[] tokens = readLineTokens();
+        return tokens == null ? null : String.join(" ", tokens);
+    }
+
+    @Override
+    public void close() {
+        try {
+            buffer = null;
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
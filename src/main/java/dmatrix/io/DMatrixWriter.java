@@ -2,20 +2,40 @@ package dmatrix.io;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
 /**
  * Base serializer for density matrices.
  * <p>
+ * Values are put into a direct buffer that is written to a channel whenever it fills. The buffer is reused
+ * by every writer on the same thread, so a thread must close a writer before opening the next one. Writers
+ * of different targets may run on different threads at the same time.
+ * <p>
+ * Writers into a matrix store instead serialize the whole matrix into a growing heap buffer, and hand it to
+ * the store as one entry on close, so that entries written from several threads stay contiguous.
+ * <p>
  * Created by zhuoranzhang on 5/12/16.
  */
 public abstract class DMatrixWriter {
-    BufferedOutputStream outputStream;
+    static final int BUFFER_SIZE = 1 << 16;
+    private static final ThreadLocal<ByteBuffer> buffers
+            = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<ByteBuffer> storeBuffers
+            = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    WritableByteChannel channel;
+    ByteBuffer buffer;
     String word;
+    private MatrixStoreWriter store;
+    private long ioTime;
 
     public DMatrixWriter(String word, String matricesPath) {
         this.word = word;
+        this.buffer = buffers.get();
+        buffer.clear();
+        long startTime = System.nanoTime();
         try {
             File outputFile = new File(Paths.get(matricesPath, word + ".bin").toString());
             if (!outputFile.exists()) {
@@ -24,25 +44,73 @@ public abstract class DMatrixWriter {
                 }
                 outputFile.createNewFile();
             }
-            outputStream = new BufferedOutputStream(new FileOutputStream(outputFile, false));
+            channel = new FileOutputStream(outputFile, false).getChannel();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        ioTime += System.nanoTime() - startTime;
     }
 
-    public void close() {
-        try {
-            outputStream.close();
-        } catch (IOException e) {
-            System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
+    /**
+     * Writes the matrix as an entry of a consolidated store instead of its own file.
+     */
+    public DMatrixWriter(String word, MatrixStoreWriter store) {
+        this.word = word;
+        this.store = store;
+        this.buffer = storeBuffers.get();
+        buffer.clear();
+    }
+
+    /**
+     * Makes room for at least the given number of bytes in the buffer.
+     */
+    void ensureRemaining(int numBytes) throws IOException {
+        if (buffer.remaining() >= numBytes) {
+            return;
         }
+        if (store == null) {
+            flush();
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + numBytes));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+        storeBuffers.set(grown);
     }
 
-    static byte[] int2ByteArray(int value) {
-        return ByteBuffer.allocate(4).putInt(value).array();
+    private void flush() throws IOException {
+        long startTime = System.nanoTime();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        ioTime += System.nanoTime() - startTime;
     }
 
-    static byte[] float2ByteArray(float value) {
-        return ByteBuffer.allocate(4).putFloat(value).array();
+    /**
+     * Time spent creating, writing and closing the output, in nanoseconds.
+     */
+    public long getIoTime() {
+        return ioTime;
+    }
+
+    public void close() {
+        try {
+            if (store != null) {
+                long startTime = System.nanoTime();
+                buffer.flip();
+                store.writeEntry(word, buffer);
+                ioTime += System.nanoTime() - startTime;
+                return;
+            }
+            flush();
+            long startTime = System.nanoTime();
+            channel.close();
+            ioTime += System.nanoTime() - startTime;
+        } catch (IOException e) {
+            System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
+        }
     }
 }
@@ -9,20 +9,83 @@ import java.io.IOException;
  */
 public class DenseDMatrixWriter extends DMatrixWriter {
 
+    /**
+     * Leading int of a packed file, followed by the dimension and the upper triangle in row order.
+     */
+    public static final int PACKED_MAGIC = 0x444d504b;
+    /**
+     * Leading int of a factors file, followed by the number of rows, the dimension and the rows.
+     */
+    public static final int FACTORS_MAGIC = 0x444d4643;
+
     public DenseDMatrixWriter(String word, String matricesPath) {
         super(word, matricesPath);
     }
 
+    public DenseDMatrixWriter(String word, MatrixStoreWriter store) {
+        super(word, store);
+    }
+
+    /**
+     * Writes the rows of a matrix one after another, without a header.
+     */
     public void writeMatrix(float[][] matrix) {
         try {
             for (float[] row : matrix) {
-                for (float value : row) {
-                    outputStream.write(float2ByteArray(value));
-                }
+                writeRow(row);
             }
         } catch (IOException e) {
             System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
         }
     }
 
+    /**
+     * Writes values without a header, such as a packed matrix in the headerless triangle layout.
+     */
+    public void writeValues(float[] values) {
+        try {
+            writeRow(values);
+        } catch (IOException e) {
+            System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
+        }
+    }
+
+    /**
+     * Writes a packed upper triangular matrix, where row i holds the dim - i values from the diagonal onwards.
+     */
+    public void writePacked(float[] packed, int dim) {
+        try {
+            ensureRemaining(8);
+            buffer.putInt(PACKED_MAGIC).putInt(dim);
+            writeRow(packed);
+        } catch (IOException e) {
+            System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
+        }
+    }
+
+    /**
+     * Writes the rows F of a factored matrix F^T F, one row of dim values after another.
+     */
+    public void writeFactors(float[] factors, int dim) {
+        try {
+            ensureRemaining(12);
+            buffer.putInt(FACTORS_MAGIC).putInt(dim == 0 ? 0 : factors.length / dim).putInt(dim);
+            writeRow(factors);
+        } catch (IOException e) {
+            System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
+        }
+    }
+
+    private void writeRow(float[] row) throws IOException {
+        // Bulk put the row through a float view, in chunks that fit the buffer.
+        int offset = 0;
+        while (offset < row.length) {
+            ensureRemaining(4);
+            int length = Math.min(row.length - offset, buffer.remaining() / 4);
+            buffer.asFloatBuffer().put(row, offset, length);
+            buffer.position(buffer.position() + 4 * length);
+            offset += length;
+        }
+    }
+
 }
@@ -0,0 +1,47 @@
+package dmatrix.io;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Mapped view of a square dense matrix, dim rows of dim floats. Only the upper triangle is read.
+ */
+public class DenseMappedDMatrix extends MappedDMatrix {
+
+    private final FloatBuffer values;
+
+    DenseMappedDMatrix(ByteBuffer buffer, int dim) {
+        super(dim);
+        this.values = buffer.asFloatBuffer();
+        if (values.remaining() < (long) dim * dim) {
+            throw new IllegalArgumentException(String.format("Dense matrix holds %d values, fewer than %d x %d.",
+                    values.remaining(), dim, dim));
+        }
+    }
+
+    public float get(int x, int y) {
+        return x <= y ? values.get(x * dim + y) : values.get(y * dim + x);
+    }
+
+    public void forEachNonZero(EntryVisitor visitor) {
+        for (int x = 0; x < dim; x++) {
+            int rowStart = x * dim;
+            for (int y = x; y < dim; y++) {
+                float value = values.get(rowStart + y);
+                if (value != 0.0f) {
+                    visitor.visit(x, y, value);
+                }
+            }
+        }
+    }
+
+    public void row(int x, float[] output) {
+        for (int y = 0; y < x; y++) {
+            output[y] = values.get(y * dim + x);
+        }
+        FloatBuffer row = values.duplicate();
+        row.position(x * dim + x);
+        row.get(output, x, dim - x);
+    }
+
+}
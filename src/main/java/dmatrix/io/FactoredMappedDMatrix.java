@@ -0,0 +1,63 @@
+package dmatrix.io;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Mapped view of a matrix stored as rank rows F of dim values, representing F^T F. Entries are computed
+ * from the factors as they are read.
+ */
+public class FactoredMappedDMatrix extends MappedDMatrix {
+
+    private final FloatBuffer factors;
+    private final int rank;
+
+    FactoredMappedDMatrix(ByteBuffer buffer, int rank, int dim) {
+        super(dim);
+        this.factors = buffer.asFloatBuffer();
+        this.rank = rank;
+        if (factors.remaining() < (long) rank * dim) {
+            throw new IllegalArgumentException(String.format("Factors hold %d values, fewer than %d x %d.",
+                    factors.remaining(), rank, dim));
+        }
+    }
+
+    public int rank() {
+        return rank;
+    }
+
+    public float get(int x, int y) {
+        float value = 0.0f;
+        for (int r = 0; r < rank; r++) {
+            value += factors.get(r * dim + x) * factors.get(r * dim + y);
+        }
+        return value;
+    }
+
+    public void forEachNonZero(EntryVisitor visitor) {
+        float[] row = new float[dim];
+        for (int x = 0; x < dim; x++) {
+            row(x, row);
+            for (int y = x; y < dim; y++) {
+                if (row[y] != 0.0f) {
+                    visitor.visit(x, y, row[y]);
+                }
+            }
+        }
+    }
+
+    public void row(int x, float[] output) {
+        Arrays.fill(output, 0, dim, 0.0f);
+        for (int r = 0; r < rank; r++) {
+            float scale = factors.get(r * dim + x);
+            if (scale == 0.0f) {
+                continue;
+            }
+            for (int y = 0; y < dim; y++) {
+                output[y] += scale * factors.get(r * dim + y);
+            }
+        }
+    }
+
+}
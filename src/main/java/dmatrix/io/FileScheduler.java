@@ -0,0 +1,128 @@
+package dmatrix.io;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out corpus files to worker threads as they become free.
+ * <p>
+ * Large plain text files may be cut into line aligned splits, so that a corpus of a few huge files still
+ * keeps every thread busy. Splits are handed out largest first, so the small ones at the end of the queue
+ * even out the finishing times of the threads. Each worker runs on its own thread, and the time each thread
+ * spends processing files and waiting for the others to finish is reported at the end.
+ */
+public class FileScheduler {
+
+    /**
+     * Per-thread worker, holding whatever state it accumulates across files.
+     */
+    public interface Worker {
+        void processFile(FileSplit split);
+
+        /**
+         * Called on the worker's thread once no splits are left.
+         */
+        void finish();
+    }
+
+    public static final long DEFAULT_SPLIT_SIZE = 64L << 20;
+
+    private final List<FileSplit> splits;
+    private final AtomicInteger next;
+
+    /**
+     * Schedules whole files only, for formats that can not be read from an arbitrary line.
+     */
+    public FileScheduler(String root) {
+        this(root, 0);
+    }
+
+    /**
+     * @param splitSize size in bytes above which plain text files are split, or 0 to keep files whole
+     */
+    public FileScheduler(String root, long splitSize) {
+        splits = new ArrayList<>();
+        for (String path : IOUtils.getFilePaths(root)) {
+            splits.addAll(FileSplit.split(path, splitSize));
+        }
+        splits.sort(Comparator.comparingLong(FileSplit::length).reversed());
+        next = new AtomicInteger();
+    }
+
+    public int size() {
+        return splits.size();
+    }
+
+    /**
+     * Returns the next split to process, or null if none are left.
+     */
+    public FileSplit next() {
+        int index = next.getAndIncrement();
+        return index < splits.size() ? splits.get(index) : null;
+    }
+
+    /**
+     * Runs each worker on its own thread until all splits are processed, or until the calling thread is
+     * interrupted.
+     */
+    public void run(List<? extends Worker> workers) {
+        long startTime = System.nanoTime();
+        long[] busyTimes = new long[workers.size()];
+        int[] numSplits = new int[workers.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(workers.size(), 1));
+        List<Future<?>> runs = new ArrayList<>(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            final int thread = i;
+            final Worker worker = workers.get(i);
+            runs.add(pool.submit(() -> {
+                try {
+                    FileSplit split;
+                    while (!Thread.currentThread().isInterrupted() && (split = next()) != null) {
+                        long splitStartTime = System.nanoTime();
+                        worker.processFile(split);
+                        busyTimes[thread] += System.nanoTime() - splitStartTime;
+                        numSplits[thread]++;
+                    }
+                } finally {
+                    // Workers merge what they accumulated here, which must not be lost to a failed split.
+                    worker.finish();
+                }
+            }));
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            // Workers stop after their current split.
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted while processing files, results are incomplete.");
+            return;
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            try {
+                runs.get(i).get();
+            } catch (ExecutionException e) {
+                System.out.println(String.format("Thread %d failed on a split, results are potentially incomplete.",
+                        i));
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        long endTime = System.nanoTime();
+        for (int i = 0; i < workers.size(); i++) {
+            System.out.println(String.format("Thread %d processed %d splits, busy %d ms, idle %d ms",
+                    i, numSplits[i], busyTimes[i] / 1000000, (endTime - startTime - busyTimes[i]) / 1000000));
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package dmatrix.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range [start, end) of a corpus file, aligned to line boundaries.
+ * <p>
+ * Large plain text files are cut into several splits so that one file can be read by every thread.
+ * Compressed and compiled files cannot be read from an arbitrary offset, and are always a single split.
+ */
+public class FileSplit {
+
+    private final String path;
+    private final long start;
+    private final long end;
+    private final boolean wholeFile;
+
+    private FileSplit(String path, long start, long end, boolean wholeFile) {
+        this.path = path;
+        this.start = start;
+        this.end = end;
+        this.wholeFile = wholeFile;
+    }
+
+    public static FileSplit wholeFile(String path) {
+        return new FileSplit(path, 0, new File(path).length(), true);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+    public boolean isWholeFile() {
+        return wholeFile;
+    }
+
+    public static boolean isSplittable(String path) {
+        return !Codec.forPath(path).isCompressed()
+                && !IOUtils.getFileExtension(path).equals(CompiledCorpus.EXTENSION);
+    }
+
+    /**
+     * Cuts a file into splits of about splitSize bytes, moving each boundary forward to the start of the
+     * next line.
+     *
+     * @param splitSize target split size in bytes, or 0 to keep the file whole
+     */
+    public static List<FileSplit> split(String path, long splitSize) {
+        List<FileSplit> splits = new ArrayList<>();
+        long fileSize = new File(path).length();
+        if (splitSize <= 0 || fileSize <= splitSize || !isSplittable(path)) {
+            splits.add(wholeFile(path));
+            return splits;
+        }
+        try (FileChannel channel = new RandomAccessFile(path, "r").getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long start = 0;
+            while (start < fileSize) {
+                long end = start + splitSize < fileSize
+                        ? nextLineStart(channel, start + splitSize, fileSize, buffer) : fileSize;
+                splits.add(new FileSplit(path, start, end, false));
+                start = end;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            splits.clear();
+            splits.add(wholeFile(path));
+        }
+        return splits;
+    }
+
+    /**
+     * Returns the first line start at or after position, or fileSize if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long fileSize, ByteBuffer buffer)
+            throws IOException {
+        // A line starts at position if the preceding byte is a newline.
+        long offset = position - 1;
+        while (offset < fileSize) {
+            buffer.clear();
+            int numRead = channel.read(buffer, offset);
+            if (numRead <= 0) {
+                break;
+            }
+            for (int i = 0; i < numRead; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += numRead;
+        }
+        return fileSize;
+    }
+
+    @Override
+    public String toString() {
+        return wholeFile ? path : String.format("%s[%d, %d)", path, start, end);
+    }
+
+}
@@ -1,7 +1,6 @@
 package dmatrix.io;
 
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
@@ -19,8 +18,13 @@ public class IOUtils {
         if (f.isFile()) {
             return Arrays.asList(path);
         } else if (f.isDirectory()) {
+            // A compiled corpus is read only through its encoded sentence files.
+            boolean compiled = CompiledCorpus.isCompiled(path);
             List<String> result = new ArrayList<>();
             for (File child : f.listFiles()) {
+                if (compiled && !getFileExtension(child.getName()).equals(CompiledCorpus.EXTENSION)) {
+                    continue;
+                }
                 result.addAll(getFilePaths(child.getPath()));
             }
             return result;
@@ -28,29 +32,12 @@ public class IOUtils {
         return null;
     }
 
-    public static List<List<String>> getFilePathPartitions(String root, int numPartitions) {
-        List<String> filePaths = IOUtils.getFilePaths(root);
-        int partitionSize = (int) Math.ceil((float) filePaths.size() / numPartitions);
-        List<List<String>> filePathPartitions = new ArrayList<List<String>>();
-        for (int i = 0; i < filePaths.size(); i += partitionSize) {
-            filePathPartitions.add(filePaths.subList(i, Math.min(i + partitionSize, filePaths.size())));
-        }
-        return filePathPartitions;
-    }
-
+    /**
+     * Loads a sparse .bin file as a dense float[dim][dim]. MappedDMatrix.openSparse reads the same file
+     * without expanding it.
+     */
     public static float[][] loadSparseMatrix(String path, int dim) throws IOException {
-        float[][] output = new float[dim][dim];
-        byte[] bytes = org.apache.commons.io.IOUtils.toByteArray(new FileInputStream(new File(path)));
-        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-        int location = 0;
-        while (location < byteBuffer.capacity()) {
-            int x = byteBuffer.getInt(location);
-            int y = byteBuffer.getInt(location + 4);
-            float value = byteBuffer.getFloat(location + 8);
-            output[x][y] = output[y][x] = value;
-            location += 12;
-        }
-        return output;
+        return MappedDMatrix.openSparse(path, dim).toArray();
     }
 
 }
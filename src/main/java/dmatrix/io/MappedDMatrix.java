@@ -0,0 +1,138 @@
+package dmatrix.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only view of a symmetric density matrix serialized by a DMatrixWriter.
+ * <p>
+ * The serialized bytes are memory mapped rather than read, and values are decoded from the mapping as they
+ * are accessed, so opening a matrix neither copies it nor expands it to a dense float[dim][dim].
+ */
+public abstract class MappedDMatrix {
+
+    /**
+     * Receives the non-zero entries of a matrix.
+     */
+    public interface EntryVisitor {
+        void visit(int x, int y, float value);
+    }
+
+    final int dim;
+
+    MappedDMatrix(int dim) {
+        this.dim = dim;
+    }
+
+    /**
+     * Maps a sparse .bin file of (x, y, value) entries.
+     */
+    public static SparseMappedDMatrix openSparse(String path, int dim) throws IOException {
+        return new SparseMappedDMatrix(map(path), dim);
+    }
+
+    /**
+     * Maps a headerless dense .bin file, either dim rows of dim floats or the upper triangle written from
+     * jagged rows, telling them apart by size.
+     */
+    public static MappedDMatrix openDense(String path, int dim) throws IOException {
+        ByteBuffer buffer = map(path);
+        if (buffer.remaining() == 4L * dim * dim) {
+            return new DenseMappedDMatrix(buffer, dim);
+        }
+        return new PackedMappedDMatrix(buffer, dim);
+    }
+
+    /**
+     * Maps a packed .bin file written by DenseDMatrixWriter.writePacked, taking the dimension from its header.
+     */
+    public static PackedMappedDMatrix openPacked(String path) throws IOException {
+        ByteBuffer buffer = map(path);
+        if (buffer.remaining() < 8 || buffer.getInt(0) != DenseDMatrixWriter.PACKED_MAGIC) {
+            throw new IOException(String.format("%s is not a packed matrix.", path));
+        }
+        int dim = buffer.getInt(4);
+        buffer.position(8);
+        return new PackedMappedDMatrix(buffer.slice(), dim);
+    }
+
+    /**
+     * Maps a factors .bin file written by DenseDMatrixWriter.writeFactors.
+     */
+    public static FactoredMappedDMatrix openFactors(String path) throws IOException {
+        ByteBuffer buffer = map(path);
+        if (buffer.remaining() < 12 || buffer.getInt(0) != DenseDMatrixWriter.FACTORS_MAGIC) {
+            throw new IOException(String.format("%s is not a factored matrix.", path));
+        }
+        int rank = buffer.getInt(4);
+        int dim = buffer.getInt(8);
+        buffer.position(12);
+        return new FactoredMappedDMatrix(buffer.slice(), rank, dim);
+    }
+
+    static ByteBuffer map(String path) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(path, "r").getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Matrix %s is too large to map.", path));
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public abstract float get(int x, int y);
+
+    /**
+     * Visits each non-zero entry of the upper triangle, x <= y, once.
+     */
+    public abstract void forEachNonZero(EntryVisitor visitor);
+
+    /**
+     * Copies row x of the full symmetric matrix into output, which must hold dim floats.
+     */
+    public abstract void row(int x, float[] output);
+
+    public float trace() {
+        float trace = 0.0f;
+        for (int i = 0; i < dim; i++) {
+            trace += get(i, i);
+        }
+        return trace;
+    }
+
+    /**
+     * Frobenius inner product, trace(AB) for symmetric A and B.
+     */
+    public double dot(MappedDMatrix other) {
+        if (other.dim != dim) {
+            throw new IllegalArgumentException(String.format("Dimensions %d and %d differ.", dim, other.dim));
+        }
+        // Walk the non-zeros of the sparser side and look the entries up in the other.
+        MappedDMatrix walked = this;
+        MappedDMatrix looked = other;
+        if (other instanceof SparseMappedDMatrix && (!(this instanceof SparseMappedDMatrix)
+                || ((SparseMappedDMatrix) other).size() < ((SparseMappedDMatrix) this).size())) {
+            walked = other;
+            looked = this;
+        }
+        MappedDMatrix lookup = looked;
+        double[] sum = new double[1];
+        walked.forEachNonZero((x, y, value) -> sum[0] += (x == y ? 1.0 : 2.0) * value * lookup.get(x, y));
+        return sum[0];
+    }
+
+    /**
+     * Expands the matrix to a dense float[dim][dim].
+     */
+    public float[][] toArray() {
+        float[][] output = new float[dim][dim];
+        forEachNonZero((x, y, value) -> output[x][y] = output[y][x] = value);
+        return output;
+    }
+
+}
@@ -0,0 +1,178 @@
+package dmatrix.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Random access reader for the consolidated matrix store written by MatrixStoreWriter.
+ * <p>
+ * The store starts with a header, followed by one segment per run. A segment holds the matrix payloads,
+ * an index of (word, offset, length) entries and a footer with the index offset, the previous footer
+ * offset and the magic number. Opening a store only reads the indices, following the footers back from the
+ * end of the file, and payloads are read through memory mapped slices. A word written by a later segment
+ * replaces any earlier entry.
+ */
+public class MatrixStore {
+
+    public static final String STORE_FILE = "matrices.store";
+    static final long MAGIC = 0x444d53544f524531L;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int FOOTER_SIZE = 24;
+    // Payloads larger than this are mapped in several pieces.
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+    private final String path;
+    private final FileChannel channel;
+    private final Map<String, long[]> entries;
+
+    private MatrixStore(String path, FileChannel channel, Map<String, long[]> entries) {
+        this.path = path;
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    public static boolean exists(String matricesPath) {
+        return new File(Paths.get(matricesPath, STORE_FILE).toString()).isFile();
+    }
+
+    public static MatrixStore open(String matricesPath) throws IOException {
+        String path = Paths.get(matricesPath, STORE_FILE).toString();
+        FileChannel channel = new RandomAccessFile(path, "r").getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        if (header.getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException(String.format("%s is not a matrix store.", path));
+        }
+        // Read segments back to front, keeping the latest entry of each word.
+        Map<String, long[]> entries = new LinkedHashMap<>();
+        List<Map<String, long[]>> segments = new ArrayList<>();
+        long footer = findLastFooter(path);
+        while (footer >= 0) {
+            ByteBuffer footerBuffer = ByteBuffer.allocate(FOOTER_SIZE);
+            channel.read(footerBuffer, footer);
+            long indexOffset = footerBuffer.getLong(0);
+            segments.add(readIndex(channel, indexOffset, footer - indexOffset));
+            footer = footerBuffer.getLong(8);
+        }
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            entries.putAll(segments.get(i));
+        }
+        return new MatrixStore(path, channel, entries);
+    }
+
+    private static Map<String, long[]> readIndex(FileChannel channel, long offset, long length) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        int size = buffer.getInt();
+        Map<String, long[]> index = new LinkedHashMap<>(2 * size);
+        for (int i = 0; i < size; i++) {
+            byte[] word = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(word);
+            index.put(new String(word, StandardCharsets.UTF_8), new long[]{buffer.getLong(), buffer.getLong()});
+        }
+        return index;
+    }
+
+    /**
+     * Returns the offset of the last complete footer, or -1 if the store has no complete segment. Bytes
+     * after it are left over from an interrupted run.
+     */
+    static long findLastFooter(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            long length = file.length();
+            byte[] chunk = new byte[1 << 20];
+            ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+            long end = length;
+            while (end - FOOTER_SIZE >= HEADER_SIZE) {
+                long start = Math.max(HEADER_SIZE, end - chunk.length);
+                file.seek(start);
+                file.readFully(chunk, 0, (int) (end - start));
+                // Candidate magic positions, latest first.
+                for (long magic = end - 8; magic - 16 >= Math.max(start, HEADER_SIZE); magic--) {
+                    if (chunkBuffer.getLong((int) (magic - start)) == MAGIC) {
+                        long footer = magic - 16;
+                        if (isFooter(file, footer)) {
+                            return footer;
+                        }
+                    }
+                }
+                if (start == HEADER_SIZE) {
+                    break;
+                }
+                // Overlap chunks so a footer across their boundary is still found.
+                end = start + FOOTER_SIZE;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isFooter(RandomAccessFile file, long footer) throws IOException {
+        file.seek(footer);
+        long indexOffset = file.readLong();
+        long previousFooter = file.readLong();
+        return indexOffset >= HEADER_SIZE && indexOffset < footer && previousFooter < indexOffset;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(String word) {
+        return entries.containsKey(word);
+    }
+
+    public Set<String> words() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Returns a read only mapping of the payload of a word, or null if the store does not contain it.
+     */
+    public MappedByteBuffer getBuffer(String word) throws IOException {
+        long[] entry = entries.get(word);
+        if (entry == null) {
+            return null;
+        }
+        if (entry[1] > MAX_MAPPING) {
+            throw new IOException(String.format("Matrix of %s is too large to map.", word));
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, entry[0], entry[1]);
+    }
+
+    /**
+     * Returns a mapped view of a sparse matrix payload, or null if the store does not contain the word.
+     */
+    public SparseMappedDMatrix getSparseMatrix(String word, int dim) throws IOException {
+        ByteBuffer buffer = getBuffer(word);
+        return buffer == null ? null : new SparseMappedDMatrix(buffer, dim);
+    }
+
+    /**
+     * Loads a sparse matrix payload of (x, y, value) entries, as IOUtils.loadSparseMatrix does for a .bin file.
+     */
+    public float[][] loadSparseMatrix(String word, int dim) throws IOException {
+        SparseMappedDMatrix matrix = getSparseMatrix(word, dim);
+        return matrix == null ? new float[dim][dim] : matrix.toArray();
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
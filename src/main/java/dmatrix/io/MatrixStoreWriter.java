@@ -0,0 +1,98 @@
+package dmatrix.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends density matrices to the consolidated store of an output directory.
+ * <p>
+ * Each writer appends one segment: the matrix payloads, in the same byte format as the per-target .bin
+ * files, followed by an index of the segment and a footer pointing to the index and to the previous footer.
+ * Separate runs over target partitions thus add to the same file without rewriting earlier segments.
+ * Entries may be written from several threads with writeEntry.
+ */
+public class MatrixStoreWriter {
+
+    private final String path;
+    private DataOutputStream outputStream;
+    private long position;
+    private long previousFooter;
+    private final List<String> words = new ArrayList<>();
+    private final List<long[]> entries = new ArrayList<>();
+
+    public MatrixStoreWriter(String matricesPath) {
+        this.path = Paths.get(matricesPath, MatrixStore.STORE_FILE).toString();
+        try {
+            Files.createDirectories(Paths.get(matricesPath));
+            File file = new File(path);
+            previousFooter = -1;
+            if (file.length() > 0) {
+                // Drop anything after the last complete segment, such as the payloads of a failed run.
+                previousFooter = MatrixStore.findLastFooter(path);
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    randomAccessFile.setLength(previousFooter < 0
+                            ? MatrixStore.HEADER_SIZE : previousFooter + MatrixStore.FOOTER_SIZE);
+                }
+            }
+            boolean writeHeader = file.length() == 0;
+            position = file.length();
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+            if (writeHeader) {
+                outputStream.writeLong(MatrixStore.MAGIC);
+                outputStream.writeInt(MatrixStore.VERSION);
+                position = MatrixStore.HEADER_SIZE;
+            }
+        } catch (IOException e) {
+            System.out.println(String.format("Unable to open matrix store %s.", path));
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer as the payload of a target's matrix.
+     */
+    public synchronized void writeEntry(String word, ByteBuffer payload) throws IOException {
+        long start = position;
+        int length = payload.remaining();
+        if (payload.hasArray()) {
+            outputStream.write(payload.array(), payload.arrayOffset() + payload.position(), length);
+        } else {
+            byte[] bytes = new byte[length];
+            payload.duplicate().get(bytes);
+            outputStream.write(bytes);
+        }
+        position += length;
+        words.add(word);
+        entries.add(new long[]{start, length});
+    }
+
+    /**
+     * Writes the index and footer of this segment.
+     */
+    public synchronized void close() {
+        try {
+            long indexOffset = position;
+            outputStream.writeInt(words.size());
+            for (int i = 0; i < words.size(); i++) {
+                byte[] word = words.get(i).getBytes(StandardCharsets.UTF_8);
+                outputStream.writeShort(word.length);
+                outputStream.write(word);
+                outputStream.writeLong(entries.get(i)[0]);
+                outputStream.writeLong(entries.get(i)[1]);
+            }
+            outputStream.writeLong(indexOffset);
+            outputStream.writeLong(previousFooter);
+            outputStream.writeLong(MatrixStore.MAGIC);
+            outputStream.close();
+        } catch (IOException e) {
+            System.out.println(String.format("IOException thrown closing matrix store %s. Store potentially corrupted.",
+                    path));
+        }
+    }
+
+}
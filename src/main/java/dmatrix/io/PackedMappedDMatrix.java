@@ -0,0 +1,52 @@
+package dmatrix.io;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Mapped view of a packed upper triangular matrix, where row x holds the dim - x values from the diagonal
+ * onwards.
+ */
+public class PackedMappedDMatrix extends MappedDMatrix {
+
+    private final FloatBuffer values;
+
+    PackedMappedDMatrix(ByteBuffer buffer, int dim) {
+        super(dim);
+        this.values = buffer.asFloatBuffer();
+        if (values.remaining() < (long) dim * (dim + 1) / 2) {
+            throw new IllegalArgumentException(String.format("Packed matrix holds %d values, fewer than %d.",
+                    values.remaining(), (long) dim * (dim + 1) / 2));
+        }
+    }
+
+    private int rowStart(int x) {
+        return x * dim - x * (x - 1) / 2;
+    }
+
+    public float get(int x, int y) {
+        return x <= y ? values.get(rowStart(x) + y - x) : values.get(rowStart(y) + x - y);
+    }
+
+    public void forEachNonZero(EntryVisitor visitor) {
+        int index = 0;
+        for (int x = 0; x < dim; x++) {
+            for (int y = x; y < dim; y++) {
+                float value = values.get(index++);
+                if (value != 0.0f) {
+                    visitor.visit(x, y, value);
+                }
+            }
+        }
+    }
+
+    public void row(int x, float[] output) {
+        for (int y = 0; y < x; y++) {
+            output[y] = values.get(rowStart(y) + x - y);
+        }
+        FloatBuffer row = values.duplicate();
+        row.position(rowStart(x));
+        row.get(output, x, dim - x);
+    }
+
+}
@@ -0,0 +1,272 @@
+package dmatrix.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Three stage pipeline of reader, parser and consumer threads.
+ * <p>
+ * Reader threads take splits from a FileScheduler and read raw records, such as lines, doing any
+ * decompression or decoding. Parser threads turn records into items, such as id arrays. Consumer threads,
+ * usually the matrix workers, accumulate the items. Stages pass batches of records through bounded queues,
+ * so a fast stage blocks once it is far enough ahead instead of buffering the corpus, and each stage runs
+ * on as many threads as it needs to keep up with the others.
+ *
+ * @param <R> record type produced by readers
+ * @param <T> item type produced by parsers
+ */
+public class Pipeline<R, T> {
+
+    /**
+     * Reads the records of one split.
+     */
+    public interface Source<R> {
+        /**
+         * @return the next record, or null at the end of the split
+         */
+        R read();
+
+        void close();
+    }
+
+    /**
+     * Per-thread parser. Parsers may return null to drop a record.
+     */
+    public interface Parser<R, T> {
+        T parse(R record);
+    }
+
+    /**
+     * Per-thread consumer, holding whatever state it accumulates across items.
+     */
+    public interface Consumer<T> {
+        void accept(T item);
+
+        /**
+         * Called on the consumer's thread once all items are consumed.
+         */
+        void finish();
+    }
+
+    // Marks the end of a queue, sent once to each thread of the next stage.
+    private static final List<Object> END = Collections.emptyList();
+
+    private final FileScheduler scheduler;
+    private final int numReaders;
+    private final int numParsers;
+    private final int batchSize;
+    private final int queueSize;
+    private final AtomicLong recordsRead = new AtomicLong();
+    private final AtomicLong itemsParsed = new AtomicLong();
+    private final AtomicLong itemsConsumed = new AtomicLong();
+    private final long[] stageTimes = new long[3];
+
+    public Pipeline(FileScheduler scheduler, int numReaders, int numParsers) {
+        this(scheduler, numReaders, numParsers, 1024, 64);
+    }
+
+    /**
+     * @param batchSize number of records passed between stages at once
+     * @param queueSize number of batches each queue holds before blocking its producers
+     */
+    public Pipeline(FileScheduler scheduler, int numReaders, int numParsers, int batchSize, int queueSize) {
+        this.scheduler = scheduler;
+        this.numReaders = numReaders;
+        this.numParsers = numParsers;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Source reading the lines of a text split.
+     */
+    public static Source<String> lines(FileSplit split) {
+        TextFileReader reader = new TextFileReader(split);
+        return new Source<String>() {
+            public String read() {
+                return reader.readLine();
+            }
+
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    public long getRecordsRead() {
+        return recordsRead.get();
+    }
+
+    public long getItemsParsed() {
+        return itemsParsed.get();
+    }
+
+    public long getItemsConsumed() {
+        return itemsConsumed.get();
+    }
+
+    /**
+     * Runs the pipeline until every split is read and every item consumed, or until the calling thread is
+     * interrupted.
+     *
+     * @param sources opens a source for a split, called on reader threads
+     * @param parsers creates one parser per parser thread
+     * @param consumers one consumer per consumer thread
+     */
+    public void run(Function<FileSplit, Source<R>> sources, Supplier<Parser<R, T>> parsers,
+                    List<? extends Consumer<T>> consumers) {
+        long startTime = System.nanoTime();
+        BlockingQueue<List<R>> records = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<List<T>> items = new ArrayBlockingQueue<>(queueSize);
+        AtomicInteger activeReaders = new AtomicInteger(numReaders);
+        AtomicInteger activeParsers = new AtomicInteger(numParsers);
+        ExecutorService pool = Executors.newFixedThreadPool(numReaders + numParsers + consumers.size());
+        for (int i = 0; i < numReaders; i++) {
+            pool.submit(() -> {
+                try {
+                    read(sources, records);
+                } finally {
+                    if (activeReaders.decrementAndGet() == 0) {
+                        stageTimes[0] = System.nanoTime() - startTime;
+                        sendEnd(records, numParsers);
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < numParsers; i++) {
+            pool.submit(() -> {
+                try {
+                    parse(parsers.get(), records, items);
+                } finally {
+                    if (activeParsers.decrementAndGet() == 0) {
+                        stageTimes[1] = System.nanoTime() - startTime;
+                        sendEnd(items, consumers.size());
+                    }
+                }
+            });
+        }
+        for (Consumer<T> consumer : consumers) {
+            pool.submit(() -> consume(consumer, items));
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            // Interrupted threads stop at their next queue operation, which ends every stage.
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted while running pipeline, results are incomplete.");
+            return;
+        }
+        stageTimes[2] = System.nanoTime() - startTime;
+        printStage("Read", recordsRead.get(), stageTimes[0], numReaders);
+        printStage("Parse", itemsParsed.get(), stageTimes[1], numParsers);
+        printStage("Consume", itemsConsumed.get(), stageTimes[2], consumers.size());
+    }
+
+    private void read(Function<FileSplit, Source<R>> sources, BlockingQueue<List<R>> records) {
+        FileSplit split;
+        while (!Thread.currentThread().isInterrupted() && (split = scheduler.next()) != null) {
+            Source<R> source = sources.apply(split);
+            List<R> batch = new ArrayList<>(batchSize);
+            R record;
+            while ((record = source.read()) != null) {
+                batch.add(record);
+                if (batch.size() == batchSize) {
+                    if (!put(records, batch)) {
+                        source.close();
+                        return;
+                    }
+                    recordsRead.addAndGet(batch.size());
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            source.close();
+            if (!batch.isEmpty()) {
+                if (!put(records, batch)) {
+                    return;
+                }
+                recordsRead.addAndGet(batch.size());
+            }
+        }
+    }
+
+    private void parse(Parser<R, T> parser, BlockingQueue<List<R>> records, BlockingQueue<List<T>> items) {
+        List<R> batch;
+        while ((batch = take(records)) != END) {
+            List<T> parsed = new ArrayList<>(batch.size());
+            for (R record : batch) {
+                try {
+                    T item = parser.parse(record);
+                    if (item != null) {
+                        parsed.add(item);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (!put(items, parsed)) {
+                return;
+            }
+            itemsParsed.addAndGet(parsed.size());
+        }
+    }
+
+    private void consume(Consumer<T> consumer, BlockingQueue<List<T>> items) {
+        List<T> batch;
+        while ((batch = take(items)) != END) {
+            for (T item : batch) {
+                try {
+                    consumer.accept(item);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            itemsConsumed.addAndGet(batch.size());
+        }
+        consumer.finish();
+    }
+
+    private static <E> boolean put(BlockingQueue<List<E>> queue, List<E> batch) {
+        try {
+            queue.put(batch);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> List<E> take(BlockingQueue<List<E>> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return (List<E>) END;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> void sendEnd(BlockingQueue<List<E>> queue, int numThreads) {
+        for (int i = 0; i < numThreads; i++) {
+            put(queue, (List<E>) END);
+        }
+    }
+
+    private static void printStage(String stage, long count, long time, int numThreads) {
+        System.out.println(String.format("%s stage: %d records on %d threads in %d ms, %d records/s", stage,
+                count, numThreads, time / 1000000, time > 0 ? (long) (count * 1e9 / time) : 0));
+    }
+
+}
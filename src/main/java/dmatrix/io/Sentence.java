@@ -1,39 +1,152 @@
 package dmatrix.io;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Wrapper object for sentence data.
  * <p>
+ * A SentenceStream refills the same Sentence for every sentence it reads, so a sentence is only valid
+ * until the next read from its stream. Use copy to keep one longer. Word bytes are kept as read and only
+ * decoded and lowercased when a word is first requested, and dependencies are (head, dependent) position
+ * pairs in a flat array.
+ * <p>
  * Created by zhuoranzhang on 5/27/16.
  */
 public class Sentence {
 
-    private final Map<Integer, String> words;
-    private final List<Integer[]> dependencies;
+    private byte[] wordBytes = new byte[1024];
+    private int[] wordOffsets = new int[65];
+    private String[] words = new String[64];
+    private int numWords;
+    private int[] dependencies = new int[64];
+    private int numDependencies;
+    // Distinct positions appearing in the dependencies, in order of first appearance.
+    private int[] positions = new int[64];
+    private boolean[] used = new boolean[64];
+    private int numPositions;
+
+    /**
+     * Clears the sentence for numWords words.
+     */
+    void reset(int numWords) {
+        Arrays.fill(words, 0, this.numWords, null);
+        Arrays.fill(used, 0, this.numWords, false);
+        this.numWords = 0;
+        numDependencies = 0;
+        numPositions = 0;
+        if (words.length < numWords) {
+            words = new String[Math.max(numWords, 2 * words.length)];
+            used = new boolean[words.length];
+            wordOffsets = new int[words.length + 1];
+        }
+    }
+
+    /**
+     * Reserves length bytes for the next word, returning the offset of the word in the byte buffer.
+     */
+    int reserveWord(int length) {
+        int offset = wordOffsets[numWords];
+        if (wordBytes.length < offset + length) {
+            wordBytes = Arrays.copyOf(wordBytes, Math.max(offset + length, 2 * wordBytes.length));
+        }
+        numWords++;
+        wordOffsets[numWords] = offset + length;
+        return offset;
+    }
+
+    byte[] wordBytes() {
+        return wordBytes;
+    }
 
-    Sentence(Map<Integer, String> words, List<Integer[]> dependencies) {
-        this.words = words;
-        this.dependencies = dependencies;
+    void addDependency(int head, int dependent) {
+        if (dependencies.length < 2 * numDependencies + 2) {
+            dependencies = Arrays.copyOf(dependencies, 2 * dependencies.length);
+        }
+        dependencies[2 * numDependencies] = head;
+        dependencies[2 * numDependencies + 1] = dependent;
+        numDependencies++;
+        addPosition(head);
+        addPosition(dependent);
     }
 
+    private void addPosition(int position) {
+        if (used[position]) {
+            return;
+        }
+        used[position] = true;
+        if (positions.length == numPositions) {
+            positions = Arrays.copyOf(positions, 2 * positions.length);
+        }
+        positions[numPositions++] = position;
+    }
+
+    /**
+     * Number of distinct words taking part in the dependencies.
+     */
     public int size() {
-        return words.size();
+        return numPositions;
+    }
+
+    /**
+     * Position of the i-th distinct word taking part in the dependencies.
+     */
+    public int getPosition(int i) {
+        return positions[i];
     }
 
-    public List<Integer[]> getDependencies() {
+    public int numDependencies() {
+        return numDependencies;
+    }
+
+    /**
+     * (head, dependent) position pairs, valid for the first 2 * numDependencies() values.
+     */
+    public int[] getDependencies() {
         return dependencies;
     }
 
+    /**
+     * Lowercased word at a position of the sentence.
+     */
     public String getWord(int index) {
-        return words.get(index);
+        String word = words[index];
+        if (word == null) {
+            int offset = wordOffsets[index];
+            word = new String(wordBytes, offset, wordOffsets[index + 1] - offset, StandardCharsets.UTF_8).toLowerCase();
+            words[index] = word;
+        }
+        return word;
     }
 
     public List<String> getWords() {
-        return words.values().stream().collect(Collectors.toList());
+        List<String> output = new ArrayList<>(numPositions);
+        for (int i = 0; i < numPositions; i++) {
+            output.add(getWord(positions[i]));
+        }
+        return output;
+    }
+
+    /**
+     * Returns an independent copy holding the words of the dependencies, for use after the next read.
+     */
+    public Sentence copy() {
+        Sentence copy = new Sentence();
+        copy.reset(numWords);
+        for (int i = 0; i < numWords; i++) {
+            int length = wordOffsets[i + 1] - wordOffsets[i];
+            int offset = copy.reserveWord(length);
+            System.arraycopy(wordBytes, wordOffsets[i], copy.wordBytes, offset, length);
+        }
+        for (int i = 0; i < numPositions; i++) {
+            copy.words[positions[i]] = getWord(positions[i]);
+        }
+        for (int i = 0; i < numDependencies; i++) {
+            copy.addDependency(dependencies[2 * i], dependencies[2 * i + 1]);
+        }
+        return copy;
     }
 
 }
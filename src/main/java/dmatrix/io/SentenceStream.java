@@ -5,12 +5,17 @@ import org.msgpack.core.MessageUnpacker;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.*;
-import java.util.zip.GZIPInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
 
 /**
  * MessageUnpacker wrapper for parsed wikipedia corpus.
  * <p>
+ * A stream belongs to a single reader and refills one Sentence for every sentence. Relation types are
+ * matched as raw bytes against the stop list, without decoding them to strings. Sentences none of whose
+ * words pass the target filter are skipped without reading their dependencies.
+ * <p>
  * Created by zhuoranzhang on 5/27/16.
  */
 public class SentenceStream {
@@ -18,50 +23,135 @@ public class SentenceStream {
     private String path;
     private MessageUnpacker unpacker;
     private Set<String> targets;
-    private static Set<String> stopList = new HashSet<>(Arrays.asList(
-            new String[]{"det", "case", "punct", "mark", "cc", "root", "dep", "expl", "cop",
-                    "aux", "auxpass", "discourse", "vocative"}));
+    private TargetFilter targetFilter;
+    private long sentencesRead;
+    private long sentencesSkipped;
+    private static final byte[][] stopList = Arrays.stream(new String[]{"det", "case", "punct", "mark", "cc",
+            "root", "dep", "expl", "cop", "aux", "auxpass", "discourse", "vocative"})
+            .map(relation -> relation.getBytes(StandardCharsets.US_ASCII)).toArray(byte[][]::new);
+    private final Sentence sentence = new Sentence();
+    private byte[] relation = new byte[64];
 
     public SentenceStream(String path, Set<String> targets) throws IOException {
+        this(path, targets, new TargetFilter(targets));
+    }
+
+    public SentenceStream(String path, Set<String> targets, TargetFilter targetFilter) throws IOException {
         this.path = path;
         this.targets = targets;
-        unpacker = MessagePack.newDefaultUnpacker(new GZIPInputStream(new FileInputStream(path)));
+        this.targetFilter = targetFilter;
+        // Parsed corpora are gzipped unless their extension names another codec.
+        Codec codec = Codec.forPath(path);
+        unpacker = MessagePack.newDefaultUnpacker(
+                (codec == Codec.NONE ? Codec.GZIP : codec).open(new FileInputStream(path)));
     }
 
-    public synchronized Sentence getSentence() {
+    /**
+     * Reads the next sentence into this stream's Sentence, which stays valid until the next call.
+     *
+     * @return the sentence, or null at the end of the stream
+     */
+    public Sentence getSentence() {
         try {
-            if (!unpacker.hasNext()) {
-                return null;
-            }
-            int numWords = unpacker.unpackArrayHeader();
-            String[] words = new String[numWords];
-            for (int i = 0; i < numWords; i++) {
-                words[i] = unpacker.unpackString().toLowerCase();
-            }
-            int numCollapsedDeps = unpacker.unpackArrayHeader();
-            List<Integer[]> dependencies = new ArrayList<>(numCollapsedDeps - 1);
-            Map<Integer, String> wordMap = new HashMap<>();
-            for (int i = 0; i < numCollapsedDeps; i++) {
-                String relType = unpacker.unpackString().split(":")[0].toLowerCase();
-                Integer[] dep = new Integer[2];
-                dep[0] = unpacker.unpackInt() - 1;
-                dep[1] = unpacker.unpackInt() - 1;
-                if (dep[0] < 0 || dep[1] < 0 || stopList.contains(relType)) {
-                    continue;
-                }
-                if (targets.contains(words[dep[0]]) || targets.contains(words[dep[1]])) {
-                    dependencies.add(dep);
-                    wordMap.put(dep[0], words[dep[0]]);
-                    wordMap.put(dep[1], words[dep[1]]);
+            while (unpacker.hasNext()) {
+                sentencesRead++;
+                if (readWords()) {
+                    return readDependencies();
                 }
+                skipDependencies();
+                sentencesSkipped++;
             }
-            return new Sentence(wordMap, dependencies);
+            return null;
         } catch (IOException e) {
             System.out.println(String.format("Got error \"%s\" for input file %s", e.getMessage(), path));
             return null;
         }
     }
 
+    /**
+     * Reads the words of a sentence, returning whether any of them may be a target.
+     */
+    private boolean readWords() throws IOException {
+        int numWords = unpacker.unpackArrayHeader();
+        sentence.reset(numWords);
+        boolean mayHaveTarget = false;
+        for (int i = 0; i < numWords; i++) {
+            int length = unpacker.unpackRawStringHeader();
+            int offset = sentence.reserveWord(length);
+            unpacker.readPayload(sentence.wordBytes(), offset, length);
+            mayHaveTarget = mayHaveTarget || targetFilter.mightContain(sentence.wordBytes(), offset, length);
+        }
+        return mayHaveTarget;
+    }
+
+    /**
+     * Skips the dependencies of a sentence, which are stored as flat (relation, head, dependent) values.
+     */
+    private void skipDependencies() throws IOException {
+        int numValues = 3 * unpacker.unpackArrayHeader();
+        for (int i = 0; i < numValues; i++) {
+            unpacker.skipValue();
+        }
+    }
+
+    private Sentence readDependencies() throws IOException {
+        int numCollapsedDeps = unpacker.unpackArrayHeader();
+        for (int i = 0; i < numCollapsedDeps; i++) {
+            int length = unpacker.unpackRawStringHeader();
+            if (relation.length < length) {
+                relation = new byte[Math.max(length, 2 * relation.length)];
+            }
+            unpacker.readPayload(relation, 0, length);
+            int head = unpacker.unpackInt() - 1;
+            int dependent = unpacker.unpackInt() - 1;
+            if (head < 0 || dependent < 0 || isStopRelation(relation, length)) {
+                continue;
+            }
+            if (targets.contains(sentence.getWord(head)) || targets.contains(sentence.getWord(dependent))) {
+                sentence.addDependency(head, dependent);
+            }
+        }
+        return sentence;
+    }
+
+    public long getSentencesRead() {
+        return sentencesRead;
+    }
+
+    /**
+     * Number of sentences skipped because none of their words may be a target.
+     */
+    public long getSentencesSkipped() {
+        return sentencesSkipped;
+    }
+
+    /**
+     * Whether the part of a relation type before any ':' subtype is in the stop list, ignoring ASCII case.
+     */
+    static boolean isStopRelation(byte[] relation, int length) {
+        int end = 0;
+        while (end < length && relation[end] != ':') {
+            end++;
+        }
+        for (byte[] stop : stopList) {
+            if (stop.length != end) {
+                continue;
+            }
+            int i = 0;
+            while (i < end && toLowerAscii(relation[i]) == stop[i]) {
+                i++;
+            }
+            if (i == end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte toLowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
     public String getPath() {
         return path;
     }
@@ -75,4 +165,3 @@ public class SentenceStream {
     }
 
 }
-
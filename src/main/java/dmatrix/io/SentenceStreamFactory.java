@@ -2,26 +2,50 @@ package dmatrix.io;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Opens sentence streams sharing one target filter, and sums the sentences they read and skip.
+ * <p>
  * Created by zhuoranzhang on 5/29/16.
  */
 public class SentenceStreamFactory {
 
     private Set<String> targets;
+    private TargetFilter targetFilter;
+    private final AtomicLong sentencesRead = new AtomicLong();
+    private final AtomicLong sentencesSkipped = new AtomicLong();
 
     public SentenceStreamFactory(Set<String> targets) {
         this.targets = targets;
+        this.targetFilter = new TargetFilter(targets);
     }
 
     public SentenceStream getStream(String path) {
         try {
-            return new SentenceStream(path, targets);
+            return new SentenceStream(path, targets, targetFilter) {
+                @Override
+                public void close() {
+                    super.close();
+                    sentencesRead.addAndGet(getSentencesRead());
+                    sentencesSkipped.addAndGet(getSentencesSkipped());
+                }
+            };
         } catch (IOException e) {
             System.out.println(String.format("Unable to open sentence stream for file %s, %s.", path, e.getMessage()));
         }
         return null;
     }
 
+    /**
+     * Reports the sentences skipped by the streams closed so far.
+     */
+    public void printSkipRate() {
+        long read = sentencesRead.get();
+        long skipped = sentencesSkipped.get();
+        System.out.println(String.format("Skipped %d of %d sentences without targets (%.1f%%)", skipped, read,
+                read > 0 ? 100.0 * skipped / read : 0.0));
+    }
+
 
 }
@@ -9,15 +9,38 @@ import java.io.IOException;
  */
 public class SparseDMatrixWriter extends DMatrixWriter {
 
+    private static final int ENTRY_SIZE = 12;
+
     public SparseDMatrixWriter(String word, String matricesPath) {
         super(word, matricesPath);
     }
 
+    public SparseDMatrixWriter(String word, MatrixStoreWriter store) {
+        super(word, store);
+    }
+
     public void writeEntry(int x, int y, float value) {
         try {
-            outputStream.write(int2ByteArray(x));
-            outputStream.write(int2ByteArray(y));
-            outputStream.write(float2ByteArray(value));
+            ensureRemaining(ENTRY_SIZE);
+            buffer.putInt(x).putInt(y).putFloat(value);
+        } catch (IOException e) {
+            System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
+        }
+    }
+
+    /**
+     * Writes the non-zero entries (x, y + i, values[offset + i]) for i in [0, length), such as a row of a
+     * packed upper triangular matrix.
+     */
+    public void writeRow(int x, int y, float[] values, int offset, int length) {
+        try {
+            for (int i = 0; i < length; i++) {
+                float value = values[offset + i];
+                if (value != 0.0f) {
+                    ensureRemaining(ENTRY_SIZE);
+                    buffer.putInt(x).putInt(y + i).putFloat(value);
+                }
+            }
         } catch (IOException e) {
             System.out.println(String.format("IOException thrown for word: %s. Matrix potentially corrupted.", word));
         }
@@ -0,0 +1,109 @@
+package dmatrix.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mapped view of a sparse matrix, a list of (x, y, value) entries in no particular order.
+ * <p>
+ * Iteration reads the entries straight from the mapping, as a coordinate list. Row access and lookups
+ * build a compressed row index on first use, holding the positions of entries rather than their values.
+ */
+public class SparseMappedDMatrix extends MappedDMatrix {
+
+    private static final int ENTRY_SIZE = 12;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private int[] rowStarts;
+    private int[] columns;
+    private int[] positions;
+
+    SparseMappedDMatrix(ByteBuffer buffer, int dim) {
+        super(dim);
+        this.buffer = buffer;
+        this.size = buffer.remaining() / ENTRY_SIZE;
+    }
+
+    /**
+     * Number of stored entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    public void forEachNonZero(EntryVisitor visitor) {
+        int base = buffer.position();
+        for (int i = 0; i < size; i++) {
+            int position = base + i * ENTRY_SIZE;
+            int x = buffer.getInt(position);
+            int y = buffer.getInt(position + 4);
+            float value = buffer.getFloat(position + 8);
+            if (value != 0.0f) {
+                visitor.visit(Math.min(x, y), Math.max(x, y), value);
+            }
+        }
+    }
+
+    public float get(int x, int y) {
+        buildIndex();
+        int start = rowStarts[x];
+        int found = Arrays.binarySearch(columns, start, rowStarts[x + 1], y);
+        return found >= 0 ? buffer.getFloat(positions[found] + 8) : 0.0f;
+    }
+
+    public void row(int x, float[] output) {
+        buildIndex();
+        Arrays.fill(output, 0, dim, 0.0f);
+        for (int i = rowStarts[x]; i < rowStarts[x + 1]; i++) {
+            output[columns[i]] = buffer.getFloat(positions[i] + 8);
+        }
+    }
+
+    /**
+     * Builds the row index of the full symmetric matrix, with the columns of each row sorted.
+     */
+    private synchronized void buildIndex() {
+        if (rowStarts != null) {
+            return;
+        }
+        int base = buffer.position();
+        int[] starts = new int[dim + 1];
+        for (int i = 0; i < size; i++) {
+            int x = buffer.getInt(base + i * ENTRY_SIZE);
+            int y = buffer.getInt(base + i * ENTRY_SIZE + 4);
+            starts[x + 1]++;
+            if (x != y) {
+                starts[y + 1]++;
+            }
+        }
+        for (int i = 0; i < dim; i++) {
+            starts[i + 1] += starts[i];
+        }
+        // Pack each (column, position) pair into a long so that sorting a row orders it by column.
+        long[] packed = new long[starts[dim]];
+        int[] fill = Arrays.copyOf(starts, dim);
+        for (int i = 0; i < size; i++) {
+            int position = base + i * ENTRY_SIZE;
+            int x = buffer.getInt(position);
+            int y = buffer.getInt(position + 4);
+            packed[fill[x]++] = ((long) y << 32) | position;
+            if (x != y) {
+                packed[fill[y]++] = ((long) x << 32) | position;
+            }
+        }
+        int[] rowColumns = new int[packed.length];
+        int[] rowPositions = new int[packed.length];
+        for (int i = 0; i < dim; i++) {
+            Arrays.sort(packed, starts[i], starts[i + 1]);
+        }
+        for (int i = 0; i < packed.length; i++) {
+            rowColumns[i] = (int) (packed[i] >>> 32);
+            rowPositions[i] = (int) packed[i];
+        }
+        columns = rowColumns;
+        positions = rowPositions;
+        rowStarts = starts;
+    }
+
+}
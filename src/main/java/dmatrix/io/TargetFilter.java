@@ -0,0 +1,75 @@
+package dmatrix.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Bloom filter over the lowercased UTF-8 bytes of target words, checked against raw word bytes.
+ * <p>
+ * ASCII bytes are lowercased while hashing, so raw words need not be decoded first. Words with any
+ * non-ASCII byte always pass, as their lowercase form can not be hashed from the raw bytes. The filter
+ * thus never rejects a word that lowercases to a target.
+ */
+public class TargetFilter {
+
+    private static final int NUM_HASHES = 3;
+
+    private final long[] bits;
+    private final int mask;
+
+    public TargetFilter(Set<String> targets) {
+        // About 16 bits per target, keeping false positives near 0.1% with three hashes.
+        int numBits = Integer.highestOneBit(Math.max(16 * targets.size(), 1024) - 1) << 1;
+        bits = new long[numBits >>> 6];
+        mask = numBits - 1;
+        for (String target : targets) {
+            byte[] bytes = target.toLowerCase().getBytes(StandardCharsets.UTF_8);
+            long hash = hash(bytes, 0, bytes.length);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = bit(hash, i);
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Whether the word in bytes[offset, offset + length) may lowercase to a target.
+     */
+    public boolean mightContain(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                return true;
+            }
+        }
+        long hash = hash(bytes, offset, length);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = bit(hash, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int bit(long hash, int i) {
+        // Double hashing from the two halves of the hash.
+        return ((int) hash + i * (int) (hash >>> 32)) & mask;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the bytes, with ASCII letters lowercased.
+     */
+    private static long hash(byte[] bytes, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+}
@@ -1,44 +1,150 @@
 package dmatrix.io;
 
+import org.apache.commons.io.input.BoundedInputStream;
+
 import java.io.*;
-import java.util.zip.GZIPInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Created by zhuoranzhang on 4/28/16.
  *
- * Easy file reader for reading plain text files or those compressed with gz.
+ * Easy file reader for reading UTF-8 text files, plain or compressed with any Codec.
+ * <p>
+ * Lines are split on the raw bytes, with the same terminators as BufferedReader. readLineBytes returns a
+ * line without decoding it, for callers such as the Tokenizer that only look at its ASCII characters.
  */
 public class TextFileReader {
 
-    private BufferedReader bufferedReader;
+    // Large reads keep bulk scans of a corpus from being dominated by system calls.
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+
+    private InputStream inputStream;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private byte[] line = new byte[256];
+    private boolean skipLineFeed;
+
+    /**
+     * For subclasses that read a non-text format and override readLine and close.
+     */
+    protected TextFileReader() {
+    }
 
     public TextFileReader(String filePath) {
+        this(filePath, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize size in bytes of the read and decompression buffers
+     */
+    public TextFileReader(String filePath, int bufferSize) {
+        open(filePath, bufferSize);
+    }
+
+    /**
+     * Reads only the lines within a split. Whole-file splits are read as a file.
+     */
+    public TextFileReader(FileSplit split) {
+        this(split, DEFAULT_BUFFER_SIZE);
+    }
+
+    public TextFileReader(FileSplit split, int bufferSize) {
+        if (split.isWholeFile()) {
+            open(split.getPath(), bufferSize);
+            return;
+        }
         try {
-            if (IOUtils.getFileExtension(filePath).equals("gz")) {
-                GZIPInputStream gzip = new GZIPInputStream(new FileInputStream(filePath));
-                bufferedReader = new BufferedReader(new InputStreamReader(gzip));
-            } else {
-                bufferedReader = new BufferedReader(new FileReader(filePath));
+            FileChannel channel = new RandomAccessFile(split.getPath(), "r").getChannel();
+            channel.position(split.getStart());
+            inputStream = new BoundedInputStream(Channels.newInputStream(channel), split.length());
+            buffer = new byte[bufferSize];
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-    } catch (FileNotFoundException e) {
-        e.printStackTrace();
-    } catch (IOException e) {
-        e.printStackTrace();
+    }
+
+    private void open(String filePath, int bufferSize) {
+        try {
+            inputStream = Codec.open(filePath, bufferSize);
+            buffer = new byte[bufferSize];
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     public String readLine() {
+        int length = readLineBytes();
+        return length < 0 ? null : new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the next line, without its terminator, into the array returned by getLineBytes.
+     *
+     * @return the length of the line in bytes, or -1 at the end of the file
+     */
+    public int readLineBytes() {
         try {
-            return bufferedReader.readLine();
+            int length = 0;
+            while (true) {
+                if (position == limit && !fill()) {
+                    return length > 0 ? length : -1;
+                }
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (buffer[position] == '\n') {
+                        position++;
+                        continue;
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+                    position++;
+                }
+                int n = position - start;
+                if (line.length < length + n) {
+                    line = Arrays.copyOf(line, Math.max(length + n, 2 * line.length));
+                }
+                System.arraycopy(buffer, start, line, length, n);
+                length += n;
+                if (position < limit) {
+                    skipLineFeed = buffer[position++] == '\r';
+                    return length;
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
-            return null;
+            return -1;
+        }
+    }
+
+    /**
+     * The bytes of the last line read by readLineBytes, valid until the next read.
+     */
+    public byte[] getLineBytes() {
+        return line;
+    }
+
+    private boolean fill() throws IOException {
+        if (inputStream == null) {
+            return false;
         }
+        int n = inputStream.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
     }
 
     public void close() {
         try {
-            bufferedReader.close();
+            if (inputStream != null) {
+                inputStream.close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
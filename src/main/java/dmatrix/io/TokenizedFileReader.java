@@ -1,7 +1,5 @@
 package dmatrix.io;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -10,33 +8,51 @@ import java.util.Set;
  * Reads text files and returns tokens line by line.
  */
 public class TokenizedFileReader extends TextFileReader {
-    private Set<String> stopWords;
+    private Tokenizer tokenizer;
 
     public TokenizedFileReader(String path, Set<String> stopWords) {
-        super(path);
-        this.stopWords = stopWords;
+        this(path, Tokenizer.getStopWordTable(stopWords));
     }
+
+    public TokenizedFileReader(String path, WordTable stopWords) {
+        this(path, stopWords, DEFAULT_BUFFER_SIZE);
+    }
+
+    public TokenizedFileReader(String path, WordTable stopWords, int bufferSize) {
+        super(path, bufferSize);
+        this.tokenizer = new Tokenizer(stopWords);
+    }
+
+    public TokenizedFileReader(FileSplit split, WordTable stopWords) {
+        this(split, stopWords, DEFAULT_BUFFER_SIZE);
+    }
+
+    public TokenizedFileReader(FileSplit split, WordTable stopWords, int bufferSize) {
+        super(split, bufferSize);
+        this.tokenizer = new Tokenizer(stopWords);
+    }
+
+    protected TokenizedFileReader() {
+        super();
+    }
+
     public String[] readLineTokens() {
-        String line = super.readLine();
-        if (line == null) return null;
-        return tokenizeLine(line);
+        int length = readLineBytes();
+        if (length < 0) return null;
+        return tokenizer.tokenize(getLineBytes(), 0, length);
+    }
+
+    /**
+     * Reads the next line as vocabulary ids, with -1 for tokens outside the vocabulary.
+     */
+    public int[] readLineIds(Vocabulary vocabulary) {
+        int length = readLineBytes();
+        if (length < 0) return null;
+        return tokenizer.tokenizeIds(getLineBytes(), 0, length, vocabulary);
     }
 
     public String[] tokenizeLine(String line) {
-        if (line.startsWith("<doc") || line.startsWith("</doc")) {
-            return new String[0];
-        }
-        String[] tokens = line.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase().split("\\s+");
-        List<String> output = new ArrayList<>();
-        for (String token : tokens) {
-            if (token.length() == 0
-                    || (!(stopWords == null) && stopWords.contains(token))
-                    || token.matches(".*\\d.*")) {
-                continue;
-            }
-            output.add(token);
-        }
-        return output.toArray(new String[output.size()]);
+        return tokenizer.tokenize(line);
     }
 
 }
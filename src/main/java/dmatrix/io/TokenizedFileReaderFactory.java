@@ -1,5 +1,6 @@
 package dmatrix.io;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -9,6 +10,8 @@ import java.util.Set;
  */
 public class TokenizedFileReaderFactory {
     private Set<String> stopWords;
+    private WordTable stopWordTable;
+    private int bufferSize = TextFileReader.DEFAULT_BUFFER_SIZE;
 
     public TokenizedFileReaderFactory() {
         stopWords = new HashSet<>(Arrays.asList(
@@ -25,10 +28,12 @@ public class TokenizedFileReaderFactory {
                         "most", "other", "some", "such", "no", "nor", "not", "only", "own", "same", "so",
                         "than", "too", "very", "s", "t", "can", "will", "just", "don", "should", "now",
                         "lrb", "rrb", "lsb", "rsb"}));
+        stopWordTable = Tokenizer.getStopWordTable(stopWords);
     }
 
     public TokenizedFileReaderFactory(String stopWordsPath) {
         loadStopWords(stopWordsPath);
+        stopWordTable = Tokenizer.getStopWordTable(stopWords);
     }
 
     private void loadStopWords(String stopWordsPath) {
@@ -40,8 +45,32 @@ public class TokenizedFileReaderFactory {
         }
     }
 
+    /**
+     * Sets the size in bytes of the read buffers of the readers created after this call.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns a tokenizer with this factory's stop words, for tokenizing lines read elsewhere.
+     */
+    public Tokenizer getTokenizer() {
+        return new Tokenizer(stopWordTable);
+    }
+
     public TokenizedFileReader getReader(String path) {
-        return new TokenizedFileReader(path, stopWords);
+        if (IOUtils.getFileExtension(path).equals(CompiledCorpus.EXTENSION)) {
+            return new CompiledCorpusReader(path, CompiledCorpus.load(new File(path).getParent()));
+        }
+        return new TokenizedFileReader(path, stopWordTable, bufferSize);
+    }
+
+    public TokenizedFileReader getReader(FileSplit split) {
+        if (split.isWholeFile()) {
+            return getReader(split.getPath());
+        }
+        return new TokenizedFileReader(split, stopWordTable, bufferSize);
     }
 
 }
@@ -0,0 +1,243 @@
+package dmatrix.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Single pass tokenizer for corpus lines.
+ * <p>
+ * Characters other than ASCII letters, digits and whitespace are dropped, letters are lowercased, and the
+ * line is split on whitespace. Tokens containing digits and stop words are skipped. This gives the same
+ * tokens as stripping with the regex [^a-zA-Z0-9\s], lowercasing and splitting on \s+, without running
+ * any regex or allocating intermediate Strings. Instances reuse their buffers and must not be shared
+ * between threads.
+ * <p>
+ * Lines may also be tokenized as UTF-8 bytes. Every byte of a multi-byte character is dropped just as the
+ * decoded character would be, so the byte path gives the same tokens without decoding the line.
+ */
+public class Tokenizer {
+
+    /**
+     * Receives each token as a range of a buffer that is only valid for the duration of the call.
+     */
+    public interface TokenSink {
+        void accept(char[] chars, int offset, int length);
+    }
+
+    private final WordTable stopWords;
+    private char[] buffer;
+    private final List<String> tokens;
+    private final TokenSink tokenCollector;
+    private Vocabulary vocabulary;
+    private int[] ids;
+    private int numIds;
+    private final TokenSink idCollector;
+    private int[] idBuffer;
+
+    public Tokenizer(WordTable stopWords) {
+        this.stopWords = stopWords;
+        this.buffer = new char[256];
+        this.tokens = new ArrayList<>();
+        this.tokenCollector = (chars, offset, length) -> tokens.add(new String(chars, offset, length));
+        this.idCollector = (chars, offset, length) -> ids[numIds++] = vocabulary.getId(chars, offset, length);
+        this.idBuffer = new int[64];
+    }
+
+    public static WordTable getStopWordTable(Set<String> stopWords) {
+        if (stopWords == null) {
+            return null;
+        }
+        WordTable table = new WordTable(stopWords.size());
+        for (String word : stopWords) {
+            table.put(word, 0);
+        }
+        return table;
+    }
+
+    /**
+     * Upper bound on the number of tokens in a line of the given length.
+     */
+    public static int maxTokens(int lineLength) {
+        return (lineLength + 1) / 2;
+    }
+
+    /**
+     * Tokenizes a line, passing each token to the sink.
+     *
+     * @return the number of tokens
+     */
+    public int tokenize(CharSequence line, TokenSink sink) {
+        if (isDocumentTag(line)) {
+            return 0;
+        }
+        if (buffer.length < line.length()) {
+            buffer = new char[Math.max(line.length(), 2 * buffer.length)];
+        }
+        int count = 0;
+        int length = 0;
+        boolean hasDigit = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                buffer[length++] = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                buffer[length++] = (char) (c + ('a' - 'A'));
+            } else if (c >= '0' && c <= '9') {
+                buffer[length++] = c;
+                hasDigit = true;
+            } else if (isWhitespace(c)) {
+                if (emit(length, hasDigit, sink)) {
+                    count++;
+                }
+                length = 0;
+                hasDigit = false;
+            }
+        }
+        if (emit(length, hasDigit, sink)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Tokenizes a line of UTF-8 bytes, passing each token to the sink.
+     *
+     * @return the number of tokens
+     */
+    public int tokenize(byte[] line, int offset, int lineLength, TokenSink sink) {
+        if (isDocumentTag(line, offset, lineLength)) {
+            return 0;
+        }
+        if (buffer.length < lineLength) {
+            buffer = new char[Math.max(lineLength, 2 * buffer.length)];
+        }
+        int count = 0;
+        int length = 0;
+        boolean hasDigit = false;
+        for (int i = offset; i < offset + lineLength; i++) {
+            byte c = line[i];
+            if (c >= 'a' && c <= 'z') {
+                buffer[length++] = (char) c;
+            } else if (c >= 'A' && c <= 'Z') {
+                buffer[length++] = (char) (c + ('a' - 'A'));
+            } else if (c >= '0' && c <= '9') {
+                buffer[length++] = (char) c;
+                hasDigit = true;
+            } else if (isWhitespace((char) c)) {
+                if (emit(length, hasDigit, sink)) {
+                    count++;
+                }
+                length = 0;
+                hasDigit = false;
+            }
+        }
+        if (emit(length, hasDigit, sink)) {
+            count++;
+        }
+        return count;
+    }
+
+    public String[] tokenize(CharSequence line) {
+        tokens.clear();
+        tokenize(line, tokenCollector);
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Tokenizes a line straight into vocabulary ids, with -1 for tokens outside the vocabulary.
+     *
+     * @param ids output array with room for at least maxTokens(line.length()) ids
+     * @return the number of ids written
+     */
+    public int tokenizeIds(CharSequence line, Vocabulary vocabulary, int[] ids) {
+        this.vocabulary = vocabulary;
+        this.ids = ids;
+        numIds = 0;
+        tokenize(line, idCollector);
+        this.ids = null;
+        return numIds;
+    }
+
+    public String[] tokenize(byte[] line, int offset, int length) {
+        tokens.clear();
+        tokenize(line, offset, length, tokenCollector);
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Tokenizes a line of UTF-8 bytes straight into vocabulary ids, as tokenizeIds does for a CharSequence.
+     */
+    public int tokenizeIds(byte[] line, int offset, int length, Vocabulary vocabulary, int[] ids) {
+        this.vocabulary = vocabulary;
+        this.ids = ids;
+        numIds = 0;
+        tokenize(line, offset, length, idCollector);
+        this.ids = null;
+        return numIds;
+    }
+
+    public int[] tokenizeIds(byte[] line, int offset, int length, Vocabulary vocabulary) {
+        if (idBuffer.length < maxTokens(length)) {
+            idBuffer = new int[Math.max(maxTokens(length), 2 * idBuffer.length)];
+        }
+        return Arrays.copyOf(idBuffer, tokenizeIds(line, offset, length, vocabulary, idBuffer));
+    }
+
+    /**
+     * Tokenizes a line into a new array of vocabulary ids, with -1 for tokens outside the vocabulary.
+     */
+    public int[] tokenizeIds(CharSequence line, Vocabulary vocabulary) {
+        if (idBuffer.length < maxTokens(line.length())) {
+            idBuffer = new int[Math.max(maxTokens(line.length()), 2 * idBuffer.length)];
+        }
+        return Arrays.copyOf(idBuffer, tokenizeIds(line, vocabulary, idBuffer));
+    }
+
+    private boolean emit(int length, boolean hasDigit, TokenSink sink) {
+        if (length == 0 || hasDigit || (stopWords != null && stopWords.contains(buffer, 0, length))) {
+            return false;
+        }
+        sink.accept(buffer, 0, length);
+        return true;
+    }
+
+    private static boolean isDocumentTag(CharSequence line) {
+        return startsWith(line, "<doc") || startsWith(line, "</doc");
+    }
+
+    private static boolean isDocumentTag(byte[] line, int offset, int length) {
+        return startsWith(line, offset, length, "<doc") || startsWith(line, offset, length, "</doc");
+    }
+
+    private static boolean startsWith(byte[] line, int offset, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(CharSequence line, String prefix) {
+        if (line.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same characters as \s in java.util.regex.
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+}
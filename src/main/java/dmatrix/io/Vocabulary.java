@@ -0,0 +1,116 @@
+package dmatrix.io;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned integer ids for corpus words.
+ * <p>
+ * Context words keep their wordmap index as id, so every id below numContexts() is a context word. Extra
+ * words, such as targets missing from the wordmap, are given the following ids. Words outside the
+ * vocabulary are encoded as -1.
+ * <p>
+ * A growable vocabulary instead gives every unseen word a new id on first lookup, and treats all ids as
+ * context words. Words from the initial wordmap are still resolved without locking or allocation.
+ */
+public class Vocabulary {
+
+    private final WordTable ids;
+    private final String[] words;
+    private final int numContexts;
+    private final boolean growable;
+    private final Map<String, Integer> addedIds;
+    private final List<String> addedWords;
+
+    public Vocabulary(Map<String, Integer> wordMap, Collection<String> extraWords) {
+        this(wordMap, extraWords, false);
+    }
+
+    public Vocabulary(Map<String, Integer> wordMap, Collection<String> extraWords, boolean growable) {
+        ids = new WordTable(wordMap.size() + extraWords.size());
+        numContexts = wordMap.size();
+        List<String> wordList = new ArrayList<>(Collections.nCopies(numContexts, (String) null));
+        for (Map.Entry<String, Integer> entry : wordMap.entrySet()) {
+            ids.put(entry.getKey(), entry.getValue());
+            wordList.set(entry.getValue(), entry.getKey());
+        }
+        for (String word : extraWords) {
+            if (ids.get(word) < 0) {
+                ids.put(word, wordList.size());
+                wordList.add(word);
+            }
+        }
+        words = wordList.toArray(new String[wordList.size()]);
+        this.growable = growable;
+        this.addedIds = growable ? new ConcurrentHashMap<>() : null;
+        this.addedWords = growable ? new ArrayList<>() : null;
+    }
+
+    public int getId(String word) {
+        int id = ids.get(word);
+        if (id < 0 && growable) {
+            return add(word);
+        }
+        return id;
+    }
+
+    public int getId(char[] chars, int offset, int length) {
+        int id = ids.get(chars, offset, length);
+        if (id < 0 && growable) {
+            return add(new String(chars, offset, length));
+        }
+        return id;
+    }
+
+    private int add(String word) {
+        Integer id = addedIds.get(word);
+        if (id != null) {
+            return id;
+        }
+        synchronized (addedWords) {
+            return addedIds.computeIfAbsent(word, w -> {
+                addedWords.add(w);
+                return words.length + addedWords.size() - 1;
+            });
+        }
+    }
+
+    public String getWord(int id) {
+        if (id < words.length) {
+            return words[id];
+        }
+        synchronized (addedWords) {
+            return addedWords.get(id - words.length);
+        }
+    }
+
+    public int size() {
+        if (!growable) {
+            return words.length;
+        }
+        synchronized (addedWords) {
+            return words.length + addedWords.size();
+        }
+    }
+
+    public boolean isGrowable() {
+        return growable;
+    }
+
+    public int numContexts() {
+        return numContexts;
+    }
+
+    public boolean isContext(int id) {
+        return id >= 0 && (growable || id < numContexts);
+    }
+
+    public int[] encode(String[] tokens) {
+        int[] output = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            output[i] = getId(tokens[i]);
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,127 @@
+package dmatrix.io;
+
+/**
+ * Open addressing hash table from words to non-negative ints.
+ * <p>
+ * Words can be looked up from a range of a char array, so tokenizers can resolve a token without first
+ * building a String for it. Hashes agree with String.hashCode.
+ */
+public class WordTable {
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public WordTable() {
+        this(16);
+    }
+
+    public WordTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    static int hash(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h;
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(String word) {
+        int h = word.hashCode();
+        for (int slot = slot(h) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == h && keys[slot].equals(word)) {
+                return values[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of the word in chars[offset, offset + length), or -1 if it is absent.
+     */
+    public int get(char[] chars, int offset, int length) {
+        int h = hash(chars, offset, length);
+        for (int slot = slot(h) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == h && regionEquals(keys[slot], chars, offset, length)) {
+                return values[slot];
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(char[] chars, int offset, int length) {
+        return get(chars, offset, length) >= 0;
+    }
+
+    public void put(String word, int value) {
+        int h = word.hashCode();
+        int slot = slot(h) & mask;
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == h && keys[slot].equals(word)) {
+                values[slot] = value;
+                return;
+            }
+        }
+        keys[slot] = word;
+        hashes[slot] = h;
+        values[slot] = value;
+        size++;
+        if (2 * size > keys.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+        allocate(2 * oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldHashes[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static boolean regionEquals(String key, char[] chars, int offset, int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
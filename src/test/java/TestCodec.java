@@ -0,0 +1,139 @@
+import dmatrix.io.BgzfInputStream;
+import dmatrix.io.Codec;
+import dmatrix.io.FileSplit;
+import dmatrix.io.TextFileReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Test that compressed corpus files read back the same lines whichever codec they use.
+ */
+public class TestCodec {
+
+    private static List<String> randomLines(int numLines) {
+        Random random = new Random(0);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < numLines; i++) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(80);
+            for (int j = 0; j < length; j++) {
+                line.append((char) ('a' + random.nextInt(26)));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Writes data as BGZF members of at most blockSize uncompressed bytes, followed by the empty end block.
+     */
+    private static void writeBgzf(byte[] data, int blockSize, File file) throws IOException {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int start = 0; start <= data.length; start += blockSize) {
+                int length = Math.min(blockSize, data.length - start);
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                deflater.setInput(data, start, length);
+                deflater.finish();
+                byte[] compressed = new byte[length + 1024];
+                int compressedLength = deflater.deflate(compressed);
+                deflater.end();
+                CRC32 crc = new CRC32();
+                crc.update(data, start, length);
+                int memberSize = 18 + compressedLength + 8;
+                outputStream.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0,
+                        'B', 'C', 2, 0, (byte) (memberSize - 1), (byte) ((memberSize - 1) >> 8)});
+                outputStream.write(compressed, 0, compressedLength);
+                writeInt(outputStream, (int) crc.getValue());
+                writeInt(outputStream, length);
+            }
+        }
+    }
+
+    private static void writeInt(OutputStream outputStream, int value) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            outputStream.write(value >> (8 * i));
+        }
+    }
+
+    private static List<String> readLines(String path) {
+        TextFileReader reader = new TextFileReader(path);
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    @Test
+    public void testBgzf() throws IOException {
+        List<String> lines = randomLines(5000);
+        byte[] data = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        File file = File.createTempFile("tmp_test_codec", ".gz");
+        file.deleteOnExit();
+        writeBgzf(data, 4096, file);
+
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            Assert.assertTrue(BgzfInputStream.isBgzf(inputStream));
+        }
+        Assert.assertEquals(lines, readLines(file.getPath()));
+        Assert.assertEquals(1, FileSplit.split(file.getPath(), 1000).size());
+
+        // Few blocks ahead, so the reader waits on blocks still being inflated.
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream inputStream = new BgzfInputStream(new FileInputStream(file), 1)) {
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = inputStream.read(buffer)) > 0) {
+                output.write(buffer, 0, n);
+            }
+        }
+        Assert.assertArrayEquals(data, output.toByteArray());
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        List<String> lines = randomLines(1000);
+        File file = File.createTempFile("tmp_test_codec", ".gz");
+        file.deleteOnExit();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)),
+                StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+        }
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            Assert.assertFalse(BgzfInputStream.isBgzf(inputStream));
+        }
+        Assert.assertEquals(lines, readLines(file.getPath()));
+    }
+
+    @Test
+    public void testCodecForPath() {
+        Assert.assertSame(Codec.GZIP, Codec.forPath("corpus/part-0.gz"));
+        Assert.assertSame(Codec.GZIP, Codec.forPath("corpus/part-0.bgz"));
+        Assert.assertSame(Codec.ZSTD, Codec.forPath("corpus/part-0.zst"));
+        Assert.assertSame(Codec.LZ4, Codec.forPath("corpus/part-0.lz4"));
+        Assert.assertSame(Codec.NONE, Codec.forPath("corpus/part-0.txt"));
+        Assert.assertFalse(Codec.NONE.isCompressed());
+        if (!Codec.ZSTD.isAvailable()) {
+            try {
+                Codec.ZSTD.open(new ByteArrayInputStream(new byte[0]));
+                Assert.fail("Expected an IOException without zstd-jni.");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("zstd-jni"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+import dmatrix.CorpusCompiler;
+import dmatrix.SentenceDMatrixGenerator;
+import dmatrix.WindowDMatrixGenerator;
+import dmatrix.io.CompiledCorpus;
+import dmatrix.io.CompiledCorpusReader;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test that generators produce the same matrices from a compiled corpus.
+ */
+public class TestCorpusCompiler {
+
+    @Test
+    public void testCompiledMatrixGeneration() {
+        URL testData = this.getClass().getResource("/test-data");
+        String outputDir = String.format("tmp_test_corpus_%d", System.nanoTime() / 1000000000);
+        new CorpusCompiler(testData.getPath(), outputDir, 2).compile();
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha"}));
+
+        for (int dim : new int[]{0, 2}) {
+            SentenceDMatrixGenerator dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, dim, 2, false);
+            dmg.generateMatrices();
+            SentenceDMatrixGenerator compiledDmg = new SentenceDMatrixGenerator(outputDir, targets, dim, 2, false);
+            compiledDmg.generateMatrices();
+            Assert.assertArrayEquals(dmg.getMatrix("alpha"), compiledDmg.getMatrix("alpha"));
+        }
+
+        WindowDMatrixGenerator dmg = new WindowDMatrixGenerator(testData.getPath(), targets, 2, 2, false, 2);
+        dmg.generateMatrices();
+        WindowDMatrixGenerator compiledDmg = new WindowDMatrixGenerator(outputDir, targets, 2, 2, false, 2);
+        compiledDmg.generateMatrices();
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), compiledDmg.getMatrix("alpha"));
+
+        // Cleanup
+        try {
+            FileUtils.deleteDirectory(new File(outputDir));
+        } catch (IOException e) {
+            Assert.fail("Failed to delete test output directory.");
+        }
+    }
+
+    @Test
+    public void testRecompile() throws IOException {
+        URL testData = this.getClass().getResource("/test-data");
+        String outputDir = String.format("tmp_test_recompile_%d", System.nanoTime() / 1000000000);
+        File corpusDir = Files.createTempDirectory("tmp_test_corpus").toFile();
+        try {
+            new CorpusCompiler(testData.getPath(), outputDir, 2).compile();
+            int size = CompiledCorpus.load(outputDir).size();
+
+            // Recompiling at the same path replaces the loaded vocabulary, and empty lines are kept.
+            try (PrintWriter writer = new PrintWriter(new File(corpusDir, "corpus.txt"))) {
+                writer.println("alpha beta");
+                writer.println();
+                writer.println("alpha");
+            }
+            new CorpusCompiler(corpusDir.getPath(), outputDir, 2).compile();
+            CompiledCorpus corpus = CompiledCorpus.load(outputDir);
+            Assert.assertNotEquals(size, corpus.size());
+            Assert.assertEquals(2, corpus.size());
+            CompiledCorpusReader reader = new CompiledCorpusReader(outputDir + "/part-00000.ids", corpus);
+            Assert.assertArrayEquals(new String[]{"alpha", "beta"}, reader.readLineTokens());
+            Assert.assertArrayEquals(new String[0], reader.readLineTokens());
+            Assert.assertArrayEquals(new String[]{"alpha"}, reader.readLineTokens());
+            Assert.assertNull(reader.readLineTokens());
+            reader.close();
+        } finally {
+            FileUtils.deleteDirectory(new File(outputDir));
+            FileUtils.deleteDirectory(corpusDir);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+import dmatrix.io.DenseDMatrixWriter;
+import dmatrix.io.SparseDMatrixWriter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Test that the buffered writers produce the same bytes as writing each value to a stream.
+ */
+public class TestDMatrixWriter {
+
+    @Test
+    public void testByteIdenticalOutput() throws IOException {
+        String outputDir = String.format("tmp_test_writer_%d", System.nanoTime() / 1000000000);
+        Random random = new Random(0);
+
+        // Enough entries to fill the buffer several times.
+        int count = 20000;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        float[] values = new float[count];
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(expected);
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextInt(100000);
+            ys[i] = random.nextInt(100000);
+            values[i] = random.nextFloat() * 1000;
+            dataOutputStream.writeInt(xs[i]);
+            dataOutputStream.writeInt(ys[i]);
+            dataOutputStream.writeFloat(values[i]);
+        }
+        float[] row = new float[]{0, 1.5f, 0, 0, -2.0f, 3.0f};
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] != 0.0f) {
+                dataOutputStream.writeInt(7);
+                dataOutputStream.writeInt(9 + i);
+                dataOutputStream.writeFloat(row[i]);
+            }
+        }
+        SparseDMatrixWriter sparseWriter = new SparseDMatrixWriter("sparse", outputDir);
+        for (int i = 0; i < count; i++) {
+            sparseWriter.writeEntry(xs[i], ys[i], values[i]);
+        }
+        sparseWriter.writeRow(7, 9, row, 0, row.length);
+        sparseWriter.close();
+        Assert.assertArrayEquals(expected.toByteArray(), Files.readAllBytes(Paths.get(outputDir, "sparse.bin")));
+
+        float[][] matrix = new float[300][];
+        expected = new ByteArrayOutputStream();
+        dataOutputStream = new DataOutputStream(expected);
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = new float[matrix.length - i];
+            for (int j = 0; j < matrix[i].length; j++) {
+                matrix[i][j] = random.nextFloat();
+                dataOutputStream.writeFloat(matrix[i][j]);
+            }
+        }
+        DenseDMatrixWriter denseWriter = new DenseDMatrixWriter("dense", outputDir);
+        denseWriter.writeMatrix(matrix);
+        denseWriter.close();
+        Assert.assertArrayEquals(expected.toByteArray(), Files.readAllBytes(Paths.get(outputDir, "dense.bin")));
+
+        // Cleanup
+        try {
+            FileUtils.deleteDirectory(new File(outputDir));
+        } catch (IOException e) {
+            Assert.fail("Failed to delete test output directory.");
+        }
+    }
+
+}
@@ -1,5 +1,8 @@
 import dmatrix.DependencyDMatrixGenerator;
 import dmatrix.io.IOUtils;
+import dmatrix.io.Sentence;
+import dmatrix.io.SentenceStream;
+import dmatrix.io.TargetFilter;
 import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Test;
@@ -8,8 +11,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.fail;
@@ -67,6 +73,21 @@ public class TestDependencyDMatrixGenerator {
         }
     }
 
+    @Test
+    public void testPipelineMatrixGeneration() {
+        URL testData = this.getClass().getResource("/test-data-parsed");
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha"}));
+        float[] context1 = new float[]{3, 2, 0};
+        float[] context2 = new float[]{2, 2, 1};
+        float[][] trueMatrix = TestUtils.matrixSum(TestUtils.outerProduct(context1),
+                TestUtils.matrixScalarProduct(2.0f, TestUtils.outerProduct(context2)));
+
+        DependencyDMatrixGenerator dmg = new DependencyDMatrixGenerator(testData.getPath(), targets, 0, 2, false);
+        dmg.setPipeline(1, 2);
+        dmg.generateMatrices();
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), trueMatrix);
+    }
+
     @Test
     public void testVectorGeneration() {
         URL testData = this.getClass().getResource("/test-data-parsed");
@@ -79,5 +100,46 @@ public class TestDependencyDMatrixGenerator {
         Assert.assertArrayEquals(vector, trueVector, 0.0f);
     }
 
+    @Test
+    public void testTargetFilter() {
+        Set<String> targets = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            targets.add("target" + i);
+        }
+        TargetFilter filter = new TargetFilter(targets);
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            byte[] target = ("Target" + i).getBytes(StandardCharsets.UTF_8);
+            Assert.assertTrue(filter.mightContain(target, 0, target.length));
+            byte[] other = ("other" + i).getBytes(StandardCharsets.UTF_8);
+            falsePositives += filter.mightContain(other, 0, other.length) ? 1 : 0;
+        }
+        Assert.assertTrue(falsePositives < 50);
+        byte[] nonAscii = "été".getBytes(StandardCharsets.UTF_8);
+        Assert.assertTrue(filter.mightContain(nonAscii, 0, nonAscii.length));
+    }
+
+    @Test
+    public void testSkippedSentences() throws IOException {
+        URL testData = this.getClass().getResource("/test-data-parsed");
+        List<String> sentences = new ArrayList<>();
+        SentenceStream stream = new SentenceStream(testData.getPath() + "/test-data-1.gz",
+                new HashSet<>(Arrays.asList("alpha")));
+        Sentence sentence;
+        while ((sentence = stream.getSentence()) != null) {
+            Assert.assertTrue(sentence.getWords().contains("alpha"));
+            sentences.add(String.join(" ", sentence.getWords()));
+        }
+        stream.close();
+        Assert.assertFalse(sentences.isEmpty());
+        Assert.assertEquals(stream.getSentencesRead() - stream.getSentencesSkipped(), sentences.size());
+
+        stream = new SentenceStream(testData.getPath() + "/test-data-1.gz",
+                new HashSet<>(Arrays.asList("notaword")));
+        Assert.assertNull(stream.getSentence());
+        stream.close();
+        Assert.assertEquals(stream.getSentencesRead(), stream.getSentencesSkipped());
+        Assert.assertTrue(stream.getSentencesRead() > 0);
+    }
 
 }
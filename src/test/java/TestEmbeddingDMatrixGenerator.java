@@ -1,8 +1,16 @@
 import dmatrix.EmbeddingDMatrixGenerator;
+import dmatrix.io.MappedDMatrix;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Created by zhuoranzhang on 5/1/16.
@@ -80,4 +88,136 @@ public class TestEmbeddingDMatrixGenerator {
         dmg.generateMatrices();
         TestUtils.assert2DFloatArrayEquals(trueMatrix, dmg.getMatrix("alpha"));
     }
+
+    @Test
+    public void testPackedOutput() throws IOException {
+        URL testData = this.getClass().getResource("/test-data");
+        URL testTargets = this.getClass().getResource("/test_targets.txt");
+        URL testVectors = this.getClass().getResource("/test_vectors.txt");
+        EmbeddingDMatrixGenerator dmg = new EmbeddingDMatrixGenerator(testData.getPath(), testTargets.getPath(),
+                2, testVectors.getPath(), 1, false);
+        dmg.generateMatrices();
+        String outputDir = String.format("tmp_test_embed_%d", System.nanoTime() / 1000000000);
+        String packedDir = Paths.get(outputDir, "packed").toString();
+        dmg.writeMatrices(outputDir);
+        dmg.setPackedOutput(true);
+        dmg.writeMatrices(packedDir);
+
+        MappedDMatrix dense = MappedDMatrix.openDense(Paths.get(outputDir, "alpha.bin").toString(), 4);
+        MappedDMatrix packed = MappedDMatrix.openPacked(Paths.get(packedDir, "alpha.bin").toString());
+        Assert.assertEquals(4, packed.dim());
+        TestUtils.assert2DFloatArrayEquals(dmg.getMatrix("alpha"), dense.toArray());
+        TestUtils.assert2DFloatArrayEquals(dmg.getMatrix("alpha"), packed.toArray());
+        Assert.assertEquals(Arrays.asList("dimension 4", "packed"),
+                Files.readAllLines(Paths.get(packedDir, "parameters.txt")));
+
+        // Cleanup
+        try {
+            FileUtils.deleteDirectory(new File(outputDir));
+        } catch (IOException e) {
+            Assert.fail("Failed to delete test output directory.");
+        }
+    }
+
+    @Test
+    public void testContextBlocks() {
+        URL testData = this.getClass().getResource("/test-data");
+        URL testTargets = this.getClass().getResource("/test_targets.txt");
+        URL testVectors = this.getClass().getResource("/test_vectors.txt");
+        for (boolean contextNorm : new boolean[]{false, true}) {
+            EmbeddingDMatrixGenerator dmg = new EmbeddingDMatrixGenerator(testData.getPath(), testTargets.getPath(),
+                    3, testVectors.getPath(), 2, contextNorm);
+            dmg.setContextBlockSize(1);
+            dmg.generateMatrices();
+            // A block of 2 is filled and flushed, and the remainder is flushed when the workers finish.
+            EmbeddingDMatrixGenerator blocked = new EmbeddingDMatrixGenerator(testData.getPath(),
+                    testTargets.getPath(), 3, testVectors.getPath(), 2, contextNorm);
+            blocked.setContextBlockSize(2);
+            blocked.generateMatrices();
+            TestUtils.assert2DFloatArrayEquals(dmg.getMatrix("alpha"), blocked.getMatrix("alpha"));
+
+            // Past the buffer bound, blocks are flushed and freed before they fill.
+            blocked = new EmbeddingDMatrixGenerator(testData.getPath(), testTargets.getPath(), 3,
+                    testVectors.getPath(), 2, contextNorm);
+            blocked.setContextBlockSize(4);
+            blocked.setContextBufferBytes(1);
+            blocked.generateMatrices();
+            TestUtils.assert2DFloatArrayEquals(dmg.getMatrix("alpha"), blocked.getMatrix("alpha"));
+        }
+    }
+
+    @Test
+    public void testMatrixBeforeGeneration() {
+        URL testData = this.getClass().getResource("/test-data");
+        URL testTargets = this.getClass().getResource("/test_targets.txt");
+        URL testVectors = this.getClass().getResource("/test_vectors.txt");
+        EmbeddingDMatrixGenerator dmg = new EmbeddingDMatrixGenerator(testData.getPath(), testTargets.getPath(),
+                3, testVectors.getPath(), 1, false);
+        TestUtils.assert2DFloatArrayEquals(new float[4][4], dmg.getMatrix("alpha"));
+        Assert.assertNull(dmg.getMatrix("delta"));
+    }
+
+    @Test
+    public void testSketchedMatrices() throws IOException {
+        URL testData = this.getClass().getResource("/test-data");
+        URL testTargets = this.getClass().getResource("/test_targets.txt");
+        URL testVectors = this.getClass().getResource("/test_vectors.txt");
+        EmbeddingDMatrixGenerator dmg = new EmbeddingDMatrixGenerator(testData.getPath(), testTargets.getPath(),
+                3, testVectors.getPath(), 1, false);
+        dmg.generateMatrices();
+        float[][] full = dmg.getMatrix("alpha");
+
+        // A sketch with room for every context is exact, and so are factors of full rank.
+        EmbeddingDMatrixGenerator sketched = new EmbeddingDMatrixGenerator(testData.getPath(),
+                testTargets.getPath(), 3, testVectors.getPath(), 1, false);
+        sketched.setSketchRank(4);
+        sketched.generateMatrices();
+        TestUtils.assert2DFloatArrayEquals(full, sketched.getMatrix("alpha"));
+        String outputDir = String.format("tmp_test_sketch_%d", System.nanoTime() / 1000000000);
+        sketched.writeMatrices(outputDir);
+        MappedDMatrix factors = MappedDMatrix.openFactors(Paths.get(outputDir, "alpha.bin").toString());
+        TestUtils.assert2DFloatArrayEquals(full, factors.toArray());
+        Assert.assertEquals(Arrays.asList("dimension 4", "factors", "rank 4"),
+                Files.readAllLines(Paths.get(outputDir, "parameters.txt")));
+
+        // A rank 1 sketch of the three contexts is shrunk, and stays within the Frequent Directions bound.
+        sketched = new EmbeddingDMatrixGenerator(testData.getPath(), testTargets.getPath(), 3,
+                testVectors.getPath(), 1, false);
+        sketched.setSketchRank(1);
+        sketched.setContextBlockSize(1);
+        sketched.generateMatrices();
+        float[][] sketch = sketched.getMatrix("alpha");
+        // The matrix in memory is the truncated one written as factors.
+        String rankOneDir = Paths.get(outputDir, "rank-1").toString();
+        sketched.writeMatrices(rankOneDir);
+        TestUtils.assert2DFloatArrayEquals(sketch,
+                MappedDMatrix.openFactors(Paths.get(rankOneDir, "alpha.bin").toString()).toArray());
+        float trace = 0.0f;
+        for (int i = 0; i < 4; i++) {
+            trace += full[i][i];
+        }
+        Random random = new Random(0);
+        for (int trial = 0; trial < 100; trial++) {
+            double[] x = new double[4];
+            double norm = 0.0;
+            for (int i = 0; i < 4; i++) {
+                x[i] = random.nextGaussian();
+                norm += x[i] * x[i];
+            }
+            double difference = 0.0;
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++) {
+                    difference += x[i] * (full[i][j] - sketch[i][j]) * x[j] / norm;
+                }
+            }
+            Assert.assertTrue(difference > -1e-4 && difference < trace + 1e-4);
+        }
+
+        // Cleanup
+        try {
+            FileUtils.deleteDirectory(new File(outputDir));
+        } catch (IOException e) {
+            Assert.fail("Failed to delete test output directory.");
+        }
+    }
 }
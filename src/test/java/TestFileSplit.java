@@ -0,0 +1,113 @@
+import dmatrix.io.FileScheduler;
+import dmatrix.io.FileSplit;
+import dmatrix.io.TextFileReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test that line aligned splits of a file together read back every line exactly once.
+ */
+public class TestFileSplit {
+
+    @Test
+    public void testSplitLines() throws IOException {
+        File file = File.createTempFile("tmp_test_split", ".txt");
+        file.deleteOnExit();
+        Random random = new Random(0);
+        List<String> lines = new ArrayList<>();
+        PrintWriter writer = new PrintWriter(file);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(5) == 0 ? 0 : random.nextInt(120);
+            for (int j = 0; j < length; j++) {
+                line.append((char) ('a' + random.nextInt(27)));
+            }
+            lines.add(line.toString().replace('{', ' '));
+            writer.print(lines.get(i) + "\n");
+        }
+        writer.close();
+
+        for (long splitSize : new long[]{0, 1, 7, 64, 1000, file.length()}) {
+            List<FileSplit> splits = FileSplit.split(file.getPath(), splitSize);
+            if (splitSize > 0 && splitSize < file.length()) {
+                Assert.assertTrue(splits.size() > 1);
+            }
+            List<String> output = new ArrayList<>();
+            long position = 0;
+            for (FileSplit split : splits) {
+                Assert.assertEquals(position, split.getStart());
+                position = split.getEnd();
+                TextFileReader reader = new TextFileReader(split);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.add(line);
+                }
+                reader.close();
+            }
+            Assert.assertEquals(file.length(), position);
+            Assert.assertEquals(lines, output);
+        }
+    }
+
+    @Test
+    public void testLineTerminators() throws IOException {
+        File file = File.createTempFile("tmp_test_split", ".txt");
+        file.deleteOnExit();
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write("unix\nwindows\r\nmac\r\r\ncafé naïve\n\nlast".getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> lines = Arrays.asList("unix", "windows", "mac", "", "café naïve", "", "last");
+        for (int bufferSize : new int[]{1, 2, 3, 7, TextFileReader.DEFAULT_BUFFER_SIZE}) {
+            TextFileReader reader = new TextFileReader(file.getPath(), bufferSize);
+            List<String> output = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+            }
+            reader.close();
+            Assert.assertEquals(lines, output);
+        }
+    }
+
+    @Test
+    public void testSchedulerWorkerFailure() {
+        String testData = this.getClass().getResource("/test-data").getPath();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        // A worker failing on a split still finishes, and the other worker takes the remaining splits.
+        List<FileScheduler.Worker> workers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final boolean failing = i == 0;
+            workers.add(new FileScheduler.Worker() {
+                public void processFile(FileSplit split) {
+                    if (failing) {
+                        throw new IllegalStateException("Failing worker.");
+                    }
+                    processed.incrementAndGet();
+                }
+
+                public void finish() {
+                    finished.incrementAndGet();
+                }
+            });
+        }
+        FileScheduler scheduler = new FileScheduler(testData);
+        int numSplits = scheduler.size();
+        scheduler.run(workers);
+        Assert.assertEquals(2, finished.get());
+        Assert.assertTrue(processed.get() >= numSplits - 1);
+    }
+
+}
@@ -0,0 +1,80 @@
+import dmatrix.io.DenseDMatrixWriter;
+import dmatrix.io.MappedDMatrix;
+import dmatrix.io.SparseDMatrixWriter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Test that mapped sparse and dense views agree with the dense arrays they were written from.
+ */
+public class TestMappedDMatrix {
+
+    @Test
+    public void testMappedViews() throws IOException {
+        String outputDir = String.format("tmp_test_mapped_%d", System.nanoTime() / 1000000000);
+        Random random = new Random(0);
+        int dim = 40;
+        float[][] expected = new float[dim][dim];
+        float[][] other = new float[dim][dim];
+        SparseDMatrixWriter sparseWriter = new SparseDMatrixWriter("sparse", outputDir);
+        for (int x = 0; x < dim; x++) {
+            for (int y = x; y < dim; y++) {
+                if (random.nextInt(4) == 0) {
+                    expected[x][y] = expected[y][x] = random.nextInt(10) + 1;
+                    // Lower triangle coordinates are read as their upper triangle counterparts.
+                    if (random.nextBoolean()) {
+                        sparseWriter.writeEntry(y, x, expected[x][y]);
+                    } else {
+                        sparseWriter.writeEntry(x, y, expected[x][y]);
+                    }
+                }
+                other[x][y] = other[y][x] = random.nextInt(5);
+            }
+        }
+        sparseWriter.close();
+        DenseDMatrixWriter denseWriter = new DenseDMatrixWriter("dense", outputDir);
+        denseWriter.writeMatrix(other);
+        denseWriter.close();
+
+        MappedDMatrix sparse = MappedDMatrix.openSparse(Paths.get(outputDir, "sparse.bin").toString(), dim);
+        MappedDMatrix dense = MappedDMatrix.openDense(Paths.get(outputDir, "dense.bin").toString(), dim);
+        Assert.assertArrayEquals(expected, sparse.toArray());
+        Assert.assertArrayEquals(other, dense.toArray());
+
+        float trace = 0.0f;
+        double dot = 0.0;
+        double selfDot = 0.0;
+        float[] row = new float[dim];
+        for (int x = 0; x < dim; x++) {
+            trace += expected[x][x];
+            for (int y = 0; y < dim; y++) {
+                dot += expected[x][y] * other[x][y];
+                selfDot += expected[x][y] * expected[x][y];
+                Assert.assertEquals(expected[x][y], sparse.get(x, y), 0.0f);
+                Assert.assertEquals(other[x][y], dense.get(x, y), 0.0f);
+            }
+            sparse.row(x, row);
+            Assert.assertArrayEquals(expected[x], row, 0.0f);
+            dense.row(x, row);
+            Assert.assertArrayEquals(other[x], row, 0.0f);
+        }
+        Assert.assertEquals(trace, sparse.trace(), 1e-4f);
+        Assert.assertEquals(dot, sparse.dot(dense), 1e-3);
+        Assert.assertEquals(dot, dense.dot(sparse), 1e-3);
+        Assert.assertEquals(selfDot, sparse.dot(sparse), 1e-3);
+
+        // Cleanup
+        try {
+            FileUtils.deleteDirectory(new File(outputDir));
+        } catch (IOException e) {
+            Assert.fail("Failed to delete test output directory.");
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+import dmatrix.SentenceDMatrixGenerator;
+import dmatrix.io.MatrixStore;
+import dmatrix.io.MatrixStoreWriter;
+import dmatrix.io.SparseDMatrixWriter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test writing matrices to a consolidated store and reading them back.
+ */
+public class TestMatrixStore {
+
+    @Test
+    public void testConsolidatedOutput() throws IOException {
+        URL testData = this.getClass().getResource("/test-data");
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha", "beta"}));
+        SentenceDMatrixGenerator dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 0, 2, false);
+        dmg.generateMatrices();
+        String outputDir = String.format("tmp_test_store_%d", System.nanoTime() / 1000000000);
+        dmg.setConsolidatedOutput(true);
+        dmg.writeMatrices(outputDir);
+
+        MatrixStore store = MatrixStore.open(outputDir);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("alpha", "beta")), store.words());
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), store.loadSparseMatrix("alpha", 3));
+        Assert.assertArrayEquals(dmg.getMatrix("beta"), store.loadSparseMatrix("beta", 3));
+        store.close();
+
+        // A later segment adds new words and replaces earlier entries.
+        MatrixStoreWriter storeWriter = new MatrixStoreWriter(outputDir);
+        SparseDMatrixWriter writer = new SparseDMatrixWriter("alpha", storeWriter);
+        writer.writeEntry(0, 1, 2.0f);
+        writer.close();
+        writer = new SparseDMatrixWriter("gamma", storeWriter);
+        writer.writeEntry(1, 1, 3.0f);
+        writer.close();
+        storeWriter.close();
+
+        // Leftovers of an interrupted segment are ignored, and dropped by the next writer.
+        FileOutputStream outputStream
+                = new FileOutputStream(Paths.get(outputDir, MatrixStore.STORE_FILE).toString(), true);
+        outputStream.write(new byte[]{1, 2, 3, 4, 5, 6, 7});
+        outputStream.close();
+        store = MatrixStore.open(outputDir);
+        Assert.assertEquals(3, store.size());
+        store.close();
+        new MatrixStoreWriter(outputDir).close();
+
+        store = MatrixStore.open(outputDir);
+        Assert.assertEquals(3, store.size());
+        float[][] alpha = store.loadSparseMatrix("alpha", 2);
+        Assert.assertArrayEquals(new float[][]{{0, 2}, {2, 0}}, alpha);
+        Assert.assertArrayEquals(new float[][]{{0, 0}, {0, 3}}, store.loadSparseMatrix("gamma", 2));
+        Assert.assertArrayEquals(dmg.getMatrix("beta"), store.loadSparseMatrix("beta", 3));
+        store.close();
+
+        // Cleanup
+        try {
+            FileUtils.deleteDirectory(new File(outputDir));
+        } catch (IOException e) {
+            Assert.fail("Failed to delete test output directory.");
+        }
+    }
+
+}
@@ -67,6 +67,139 @@ public class TestSentenceDMatrixGenerator {
         }
     }
 
+    @Test
+    public void testThreadLocalMatrixGeneration() {
+        URL testData = this.getClass().getResource("/test-data");
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha"}));
+        float[] context1 = new float[]{4, 3, 0};
+        float[] context2 = new float[]{3, 2, 1};
+        float[][] trueMatrix = TestUtils.matrixSum(TestUtils.outerProduct(context1),
+                TestUtils.matrixScalarProduct(2.0f, TestUtils.outerProduct(context2)));
+
+        // Shards are only merged at the end of the run.
+        SentenceDMatrixGenerator dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 0, 2, false);
+        dmg.setShardMemoryBudget(Long.MAX_VALUE);
+        dmg.generateMatrices();
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), trueMatrix);
+
+        // A budget too small for a single target is raised to room for several before shards are flushed.
+        dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 0, 2, false);
+        dmg.setShardMemoryBudget(1);
+        dmg.generateMatrices();
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), trueMatrix);
+    }
+
+    @Test
+    public void testPipelineMatrixGeneration() {
+        URL testData = this.getClass().getResource("/test-data");
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha"}));
+        float[] context1 = new float[]{4, 3, 0};
+        float[] context2 = new float[]{3, 2, 1};
+        float[][] trueMatrix = TestUtils.matrixSum(TestUtils.outerProduct(context1),
+                TestUtils.matrixScalarProduct(2.0f, TestUtils.outerProduct(context2)));
+
+        SentenceDMatrixGenerator dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 0, 2, false);
+        dmg.setPipeline(2, 3);
+        dmg.generateMatrices();
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), trueMatrix);
+    }
+
+    @Test
+    public void testSinglePassMatrixGeneration() {
+        URL testData = this.getClass().getResource("/test-data");
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha"}));
+
+        // Hard cutoff, the sampled line has the same two most frequent words as the corpus.
+        float[][] trueMatrix = new float[2][2];
+        trueMatrix[0][0] = 34.0f;
+        trueMatrix[1][1] = 17.0f;
+        trueMatrix[0][1] = trueMatrix[1][0] = 24.0f;
+        SentenceDMatrixGenerator dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 2, 2, 1, false, 1);
+        dmg.generateMatrices();
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), trueMatrix);
+
+        // Soft cutoff, the sampled ranks are corrected by the exact counts.
+        float[] context1 = new float[]{4, 3, 0};
+        float[] context2 = new float[]{3, 2, 1};
+        trueMatrix = TestUtils.matrixSum(TestUtils.outerProduct(context1),
+                TestUtils.matrixScalarProduct(2.0f, TestUtils.outerProduct(context2)));
+        dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 0, 2, 1, false, 1);
+        dmg.generateMatrices();
+        Assert.assertArrayEquals(dmg.getMatrix("alpha"), trueMatrix);
+
+        // Hard cutoff beyond the size of the sampled vocabulary, with vectors.
+        SentenceDMatrixGenerator expected = new SentenceDMatrixGenerator(testData.getPath(), targets, 10, 2, true);
+        expected.generateMatrices();
+        dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 10, 2, 1, true, 1);
+        dmg.generateMatrices();
+        Assert.assertArrayEquals(expected.getMatrix("alpha"), dmg.getMatrix("alpha"));
+        Assert.assertArrayEquals(expected.getVector("alpha"), dmg.getVector("alpha"), 0.0f);
+    }
+
+    @Test
+    public void testPartitionedMatrixGeneration() throws IOException {
+        URL testData = this.getClass().getResource("/test-data");
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha", "beta", "gamma"}));
+        SentenceDMatrixGenerator expected = new SentenceDMatrixGenerator(testData.getPath(), targets, 0, 2, false);
+        expected.generateMatrices();
+
+        // Every target is written by exactly one of the frequency balanced runs.
+        SentenceDMatrixGenerator dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, 0, 2, 2, false);
+        String outputDir = String.format("tmp_test_partitions_%d", System.nanoTime() / 1000000000);
+        dmg.generateAndWriteMatrices(outputDir);
+        int size = expected.getMatrix("alpha").length;
+        for (String target : targets) {
+            Assert.assertArrayEquals(expected.getMatrix(target),
+                    IOUtils.loadSparseMatrix(outputDir + "/" + target + ".bin", size));
+        }
+        // Cleanup
+        try {
+            FileUtils.deleteDirectory(new File(outputDir));
+        } catch (IOException e) {
+            Assert.fail("Failed to delete test output directory.");
+        }
+    }
+
+    @Test
+    public void testSpilledMatrixGeneration() throws IOException {
+        URL testData = this.getClass().getResource("/test-data");
+        Set<String> targets = new HashSet<>(Arrays.asList(new String[]{"alpha", "beta"}));
+        for (int dim : new int[]{0, 2}) {
+            SentenceDMatrixGenerator expected = new SentenceDMatrixGenerator(testData.getPath(), targets, dim, 2, true);
+            expected.generateMatrices();
+
+            // A budget too small for a single target is raised, and a single pass covers both target partitions.
+            SentenceDMatrixGenerator dmg = new SentenceDMatrixGenerator(testData.getPath(), targets, dim, 2, 2, true);
+            dmg.setSpillMemoryBudget(1);
+            dmg.generateMatrices();
+            Assert.assertArrayEquals(expected.getMatrix("alpha"), dmg.getMatrix("alpha"));
+            Assert.assertArrayEquals(expected.getVector("beta"), dmg.getVector("beta"), 0.0f);
+
+            // Each of 5 threads spills at least one run, and the runs are merged 2 at a time over several passes.
+            SentenceDMatrixGenerator merged = new SentenceDMatrixGenerator(testData.getPath(), targets, dim, 5, 2,
+                    true);
+            merged.setSpillMemoryBudget(1);
+            merged.setSpillFanIn(2);
+            merged.generateMatrices();
+            Assert.assertArrayEquals(expected.getMatrix("alpha"), merged.getMatrix("alpha"));
+            Assert.assertArrayEquals(expected.getMatrix("beta"), merged.getMatrix("beta"));
+
+            String outputDir = String.format("tmp_test_spill_%d", System.nanoTime() / 1000000000);
+            dmg.generateAndWriteMatrices(outputDir);
+            int size = expected.getMatrix("alpha").length;
+            Assert.assertArrayEquals(expected.getMatrix("alpha"),
+                    IOUtils.loadSparseMatrix(outputDir + "/alpha.bin", size));
+            Assert.assertArrayEquals(expected.getMatrix("beta"),
+                    IOUtils.loadSparseMatrix(outputDir + "/beta.bin", size));
+            // Cleanup
+            try {
+                FileUtils.deleteDirectory(new File(outputDir));
+            } catch (IOException e) {
+                Assert.fail("Failed to delete test output directory.");
+            }
+        }
+    }
+
     @Test
     public void testVectorGeneration() {
         URL testData = this.getClass().getResource("/test-data");
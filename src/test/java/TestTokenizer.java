@@ -0,0 +1,101 @@
+import dmatrix.io.TextFileReader;
+import dmatrix.io.Tokenizer;
+import dmatrix.io.Vocabulary;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Test the single pass tokenizer against the regex based tokenization it replaces.
+ */
+public class TestTokenizer {
+
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            new String[]{"i", "me", "a", "the", "of", "don", "lrb", "rrb"}));
+
+    // Previous implementation of TokenizedFileReader.tokenizeLine.
+    private static String[] regexTokenize(String line, Set<String> stopWords) {
+        if (line.startsWith("<doc") || line.startsWith("</doc")) {
+            return new String[0];
+        }
+        String[] tokens = line.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase().split("\\s+");
+        List<String> output = new ArrayList<>();
+        for (String token : tokens) {
+            if (token.length() == 0
+                    || (!(stopWords == null) && stopWords.contains(token))
+                    || token.matches(".*\\d.*")) {
+                continue;
+            }
+            output.add(token);
+        }
+        return output.toArray(new String[output.size()]);
+    }
+
+    private static void assertMatchesRegex(Tokenizer tokenizer, String line) {
+        Assert.assertArrayEquals(line, regexTokenize(line, STOP_WORDS), tokenizer.tokenize(line));
+        byte[] bytes = ("#" + line).getBytes(StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(line, regexTokenize(line, STOP_WORDS),
+                tokenizer.tokenize(bytes, 1, bytes.length - 1));
+    }
+
+    @Test
+    public void testGoldenLines() {
+        Tokenizer tokenizer = new Tokenizer(Tokenizer.getStopWordTable(STOP_WORDS));
+        String[] lines = new String[]{
+                "", " ", "\t\t", "The quick brown fox", "  leading and trailing  ", "I don't know",
+                "a-b c_d e.f", "beta90 90beta 90 b9ta", "-LRB- parenthetical -RRB-", "tabs\tand\u000Bvertical\ftabs\r",
+                "café naïve École", "emoji 😀 between", " non breaking space",
+                "<doc id=\"12\" url=\"x\">", "</doc>", " <doc not a tag", "ALL CAPS Mixed CaSe", "me myself i I",
+                "punctuation!!! ... ,,, ???", "The the THE"};
+        for (String line : lines) {
+            assertMatchesRegex(tokenizer, line);
+        }
+    }
+
+    @Test
+    public void testGoldenCorpus() {
+        Tokenizer tokenizer = new Tokenizer(Tokenizer.getStopWordTable(STOP_WORDS));
+        URL testData = this.getClass().getResource("/test-data");
+        for (File file : new File(testData.getPath()).listFiles()) {
+            TextFileReader reader = new TextFileReader(file.getPath());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                assertMatchesRegex(tokenizer, line);
+            }
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testGoldenRandom() {
+        Tokenizer tokenizer = new Tokenizer(Tokenizer.getStopWordTable(STOP_WORDS));
+        Random random = new Random(42);
+        String alphabet = "abcXYZ019 \t\n-'.,é  ";
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertMatchesRegex(tokenizer, line.toString());
+        }
+    }
+
+    @Test
+    public void testTokenizeIds() {
+        Tokenizer tokenizer = new Tokenizer(Tokenizer.getStopWordTable(STOP_WORDS));
+        Map<String, Integer> wordMap = new HashMap<>();
+        wordMap.put("beta", 0);
+        wordMap.put("gamma", 1);
+        Vocabulary vocabulary = new Vocabulary(wordMap, Arrays.asList("alpha"));
+        String line = "Alpha, the beta-gamma BETA delta gamma";
+        int[] ids = new int[Tokenizer.maxTokens(line.length())];
+        int numIds = tokenizer.tokenizeIds(line, vocabulary, ids);
+        Assert.assertArrayEquals(new int[]{2, -1, 0, -1, 1}, Arrays.copyOf(ids, numIds));
+    }
+
+}
@@ -0,0 +1,42 @@
+import dmatrix.WordCounter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * Test word counting and top N selection.
+ */
+public class TestWordCounter {
+
+    @Test
+    public void testTopN() {
+        Random random = new Random(0);
+        List<WordCounter> counters = new ArrayList<>();
+        Map<String, Long> trueCounts = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            WordCounter counter = new WordCounter(4);
+            for (int j = 0; j < 10000; j++) {
+                String word = "w" + (int) Math.abs(random.nextGaussian() * 300);
+                counter.add(word);
+                trueCounts.merge(word, 1L, Long::sum);
+            }
+            counters.add(counter);
+        }
+        WordCounter counts = WordCounter.merge(counters, 2);
+        Assert.assertEquals(50000, counts.total());
+        Assert.assertEquals(trueCounts.size(), counts.size());
+
+        List<String> trueOrder = new ArrayList<>(trueCounts.keySet());
+        trueOrder.sort((a, b) -> !trueCounts.get(a).equals(trueCounts.get(b))
+                ? Long.compare(trueCounts.get(b), trueCounts.get(a)) : a.compareTo(b));
+        Assert.assertEquals(trueOrder, counts.sorted());
+        Assert.assertEquals(trueOrder.subList(0, 50), counts.top(50));
+        Assert.assertEquals(trueOrder, counts.top(trueOrder.size() + 10));
+        Assert.assertTrue(counts.top(0).isEmpty());
+        for (String word : trueOrder) {
+            Assert.assertEquals((long) trueCounts.get(word), counts.getCount(word));
+        }
+    }
+
+}